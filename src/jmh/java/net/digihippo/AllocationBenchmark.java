@@ -0,0 +1,67 @@
+package net.digihippo;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+// Bytes allocated per evaluation of each graph shape: gc.alloc.rate.norm, from JMH's GC
+// profiler. Run through main, which adds the profiler itself, or with -prof gc:
+//   java -cp target/benchmarks.jar net.digihippo.AllocationBenchmark
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AllocationBenchmark {
+    private final Duration timeout = Duration.ofSeconds(1);
+    private OneSource<Integer> chain;
+    private OneSource<Integer> compiledChain;
+    private OneSource<Integer> fanOut;
+    private OneSource<Integer> joinTree;
+
+    @Setup
+    public void build() {
+        chain = Graphs.linearChain(10, false);
+        compiledChain = Graphs.linearChain(10, false).compile();
+        fanOut = Graphs.nestedFanOut(8);
+        joinTree = Graphs.joinTree(3);
+    }
+
+    @Benchmark
+    public Result<Integer> chain(ExecutorState executor) {
+        return executor.evaluate(chain);
+    }
+
+    @Benchmark
+    public Result<Integer> compiledChain(ExecutorState executor) {
+        return executor.evaluate(compiledChain);
+    }
+
+    @Benchmark
+    public Result<Integer> fanOut(ExecutorState executor) {
+        return executor.evaluate(fanOut);
+    }
+
+    @Benchmark
+    public Result<Integer> joinTree(ExecutorState executor) {
+        return executor.evaluate(joinTree);
+    }
+
+    @Benchmark
+    public Result<Integer> joinTreeWithTimeout(ExecutorState executor) {
+        return executor.evaluate(joinTree, timeout);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include("^" + AllocationBenchmark.class.getName() + "\\.")
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
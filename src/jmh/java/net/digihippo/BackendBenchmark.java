@@ -0,0 +1,36 @@
+package net.digihippo;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+// Many callers at once evaluating wide graphs of blocking suppliers, each followed by a CPU
+// bound map. On one fixed pool the blocked suppliers hold up the maps; a work stealing pool
+// sized to the cores is starved by the blocking too; a thread per supplier keeps the two apart.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(16)
+@Fork(1)
+public class BackendBenchmark {
+    @Param({"8"})
+    public int width;
+
+    @Param({"100"})
+    public int blockMicros;
+
+    private OneSource<Long> graph;
+
+    @Setup
+    public void build() {
+        graph = Graphs.blockingFanOut(width, Duration.ofNanos(blockMicros * 1_000L), 10_000);
+    }
+
+    @Benchmark
+    public Result<Long> wideJoin(ExecutorState executor) {
+        return executor.evaluate(graph);
+    }
+}
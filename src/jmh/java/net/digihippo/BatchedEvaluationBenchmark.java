@@ -0,0 +1,66 @@
+package net.digihippo;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+// One graph over many inputs: one asyncExec per input, each admitted and walked on its own,
+// against asyncExecEach, which admits the batch once and runs a compiled plan per input, a chunk
+// of inputs per task. Throughput is in batches, so multiply by inputs for evaluations per second;
+// add -prof gc to compare what the two allocate per batch.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BatchedEvaluationBenchmark {
+    @Param({"1000"})
+    public int inputs;
+
+    @Param({"16", "128"})
+    public int chunkSize;
+
+    private final Duration timeout = Duration.ofSeconds(10);
+    private final Input<Integer> input = new Input<>();
+    private AsynchronousExecutor executor;
+    private OneSource<Integer> graph;
+    private List<Integer> values;
+
+    @Setup
+    public void start() {
+        executor = new AsynchronousExecutor(ExecutionBackend.fixed(10));
+        graph = input
+                .mapSeparately(x -> x + 1)
+                .mapSeparately(x -> x * 2)
+                .mapTwo(x -> x + 3, x -> x - 3)
+                .join(Integer::sum);
+        values = new ArrayList<>(inputs);
+        for (int i = 0; i < inputs; i++) {
+            values.add(i);
+        }
+    }
+
+    @TearDown
+    public void stop() {
+        executor.shutdown();
+    }
+
+    @Benchmark
+    public List<Result<Integer>> perInput() {
+        final List<CompletableFuture<Result<Integer>>> results = new ArrayList<>(inputs);
+        for (Integer value : values) {
+            results.add(graph.asyncExec(executor, input, value));
+        }
+        return Futures.joinAll(results);
+    }
+
+    @Benchmark
+    public List<Result<Integer>> chunked() {
+        return graph.asyncExecEach(executor, input, values, chunkSize, timeout).join();
+    }
+}
@@ -0,0 +1,75 @@
+package net.digihippo;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+// Many evaluations at once, each a supplier that blocks for a millisecond before a couple of
+// cheap maps. A fixed pool can only block as many suppliers as it has threads; a thread per
+// supplier, or a thread per node in the structured executor, lets them all wait together. Where
+// the JDK has no virtual threads, as on 17, both of those are platform threads from a cached
+// pool, so the structured executor starts an OS thread for every node it has running at once.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BlockingSuppliersBenchmark {
+    @Param({"fixed", "threadPerSupplier", "structured"})
+    public String executor;
+
+    @Param({"10000"})
+    public int suppliers;
+
+    private final Duration timeout = Duration.ofSeconds(60);
+    private Executor running;
+    private Runnable shutdown;
+    private OneSource<Integer> graph;
+
+    @Setup
+    public void start() {
+        if ("structured".equals(executor))
+        {
+            final StructuredExecutor structured = new StructuredExecutor();
+            running = structured;
+            shutdown = structured::shutdown;
+        }
+        else
+        {
+            final AsynchronousExecutor asynchronous = new AsynchronousExecutor("fixed".equals(executor)
+                    ? ExecutionBackend.fixed(10)
+                    : ExecutionBackend.workStealingWithThreadPerSupplier());
+            running = asynchronous;
+            shutdown = asynchronous::shutdown;
+        }
+        graph = new Supply<>("blocking", () -> {
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            return 1;
+        })
+                .mapSeparately(x -> x + 1)
+                .mapSeparately(x -> x * 2);
+    }
+
+    @TearDown
+    public void stop() {
+        shutdown.run();
+    }
+
+    @Benchmark
+    public List<Result<Integer>> allAtOnce() {
+        final List<CompletableFuture<Result<Integer>>> results = new ArrayList<>(suppliers);
+        for (int i = 0; i < suppliers; i++) {
+            results.add(graph.asyncExec(running, timeout));
+        }
+        return Futures.joinAll(results);
+    }
+}
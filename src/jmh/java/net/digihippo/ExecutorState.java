@@ -0,0 +1,53 @@
+package net.digihippo;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Duration;
+
+// The executor every graph benchmark runs on. SampleTime modes report latency percentiles;
+// run with -prof gc for allocation per evaluation (gc.alloc.rate.norm).
+@State(Scope.Benchmark)
+public class ExecutorState {
+    @Param({"immediate", "fixed", "work-stealing", "thread-per-supplier"})
+    public String executor;
+
+    private Executor target;
+    private AsynchronousExecutor async;
+
+    @Setup
+    public void start() {
+        switch (executor) {
+            case "immediate":
+                target = new ImmediateExecutor();
+                return;
+            case "fixed":
+                async = new AsynchronousExecutor(ExecutionBackend.fixed(10));
+                break;
+            case "work-stealing":
+                async = new AsynchronousExecutor(ExecutionBackend.workStealing());
+                break;
+            case "thread-per-supplier":
+                async = new AsynchronousExecutor(ExecutionBackend.workStealingWithThreadPerSupplier());
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown executor " + executor);
+        }
+        target = async;
+    }
+
+    @TearDown
+    public void stop() {
+        if (async != null)
+        {
+            async.shutdown();
+        }
+    }
+
+    <T> Result<T> evaluate(final OneSource<T> graph) {
+        return graph.asyncExec(target).join();
+    }
+
+    <T> Result<T> evaluate(final OneSource<T> graph, final Duration timeout) {
+        return graph.asyncExec(target, timeout).join();
+    }
+}
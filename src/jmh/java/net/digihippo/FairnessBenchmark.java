@@ -0,0 +1,72 @@
+package net.digihippo;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+// Interactive evaluations while a background thread keeps the workers flooded with batch
+// evaluations. Compare the SampleTime percentiles of the two backends: "fifo" runs every stage
+// in arrival order, "fair" hands workers to the interactive class by weight.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FairnessBenchmark {
+    private static final TrafficClass INTERACTIVE = new TrafficClass("interactive", 8);
+    private static final TrafficClass BATCH = new TrafficClass("batch", 1);
+
+    @Param({"fifo", "fair"})
+    public String scheduling;
+
+    // batch evaluations kept in flight at once
+    @Param({"256"})
+    public int flood;
+
+    private final Duration timeout = Duration.ofSeconds(30);
+    private AsynchronousExecutor executor;
+    private OneSource<Integer> interactive;
+    private OneSource<Integer> batch;
+    private Thread flooder;
+    private volatile boolean flooding;
+
+    @Setup
+    public void start() {
+        executor = new AsynchronousExecutor(
+                "fair".equals(scheduling) ? ExecutionBackend.fair(4) : ExecutionBackend.fixed(4));
+        interactive = Graphs.joinTree(2);
+        batch = Graphs.joinTree(5);
+
+        flooding = true;
+        final Semaphore inFlight = new Semaphore(flood);
+        flooder = new Thread(() -> {
+            while (flooding)
+            {
+                try {
+                    inFlight.acquire();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                batch.asyncExec(executor, timeout, BATCH).whenComplete((r, e) -> inFlight.release());
+            }
+        }, "batch-flood");
+        flooder.setDaemon(true);
+        flooder.start();
+    }
+
+    @TearDown
+    public void stop() throws InterruptedException {
+        flooding = false;
+        flooder.interrupt();
+        flooder.join();
+        executor.shutdown();
+    }
+
+    @Benchmark
+    public Result<Integer> interactiveUnderBatchFlood() {
+        return interactive.asyncExec(executor, timeout, INTERACTIVE).join();
+    }
+}
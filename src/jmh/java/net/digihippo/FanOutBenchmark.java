@@ -0,0 +1,37 @@
+package net.digihippo;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+// One supplier fanned out to width maps and joined back together, through nested two-way joins
+// or in one mapMany and a single N-ary join. SampleTime reports the latency percentiles.
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FanOutBenchmark {
+    @Param({"2", "8"})
+    public int width;
+
+    private OneSource<Integer> nested;
+    private OneSource<Integer> manyWay;
+
+    @Setup
+    public void build() {
+        nested = Graphs.nestedFanOut(width);
+        manyWay = Graphs.manyWayFanOut(width);
+    }
+
+    @Benchmark
+    public Result<Integer> nestedTwoWay(ExecutorState executor) {
+        return executor.evaluate(nested);
+    }
+
+    @Benchmark
+    public Result<Integer> manyWay(ExecutorState executor) {
+        return executor.evaluate(manyWay);
+    }
+}
@@ -0,0 +1,90 @@
+package net.digihippo;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+
+final class Graphs {
+    static OneSource<Integer> linearChain(final int length, final boolean fused) {
+        OneSource<Integer> graph = new Supply<>(() -> 1);
+        for (int i = 0; i < length; i++) {
+            graph = fused ? graph.map(x -> x + 1) : graph.mapSeparately(x -> x + 1);
+        }
+        return graph;
+    }
+
+    // width branches off one supplier, joined pairwise into a tree of two-way joins
+    static OneSource<Integer> nestedFanOut(final int width) {
+        return nestedFanOut(new SharedSupply<>(new Supply<>(() -> 1)), width);
+    }
+
+    private static OneSource<Integer> nestedFanOut(final OneSource<Integer> shared, final int width) {
+        if (width == 1)
+        {
+            return shared.map(x -> x + 1);
+        }
+        return new TwoSource<>(nestedFanOut(shared, width / 2), nestedFanOut(shared, width - width / 2))
+                .join(Integer::sum);
+    }
+
+    // the same fan-out as one mapMany and a single join
+    static OneSource<Integer> manyWayFanOut(final int width) {
+        final List<Function<Integer, Integer>> branches = new ArrayList<>(width);
+        for (int i = 0; i < width; i++) {
+            branches.add(x -> x + 1);
+        }
+        return new Supply<>(() -> 1)
+                .mapMany(branches)
+                .join(xs -> xs.stream().mapToInt(Integer::intValue).sum());
+    }
+
+    // a balanced binary tree of joins over 2^depth independent suppliers
+    static OneSource<Integer> joinTree(final int depth) {
+        if (depth == 0)
+        {
+            return new Supply<>(() -> 1);
+        }
+        return new TwoSource<>(joinTree(depth - 1), joinTree(depth - 1)).join(Integer::sum);
+    }
+
+    // width suppliers that block, as remote calls would, each followed by a CPU bound map,
+    // joined pairwise
+    static OneSource<Long> blockingFanOut(final int width, final Duration block, final int work) {
+        if (width == 1)
+        {
+            final long nanos = block.toNanos();
+            return new Supply<>(() -> {
+                LockSupport.parkNanos(nanos);
+                return 1L;
+            }).map(x -> spin(x, work));
+        }
+        return new TwoSource<>(
+                blockingFanOut(width / 2, block, work),
+                blockingFanOut(width - width / 2, block, work))
+                .join(Long::sum);
+    }
+
+    private static long spin(final long seed, final int work) {
+        long x = seed;
+        for (int i = 0; i < work; i++) {
+            x = x * 6364136223846793005L + 1442695040888963407L;
+        }
+        return x;
+    }
+
+    // a supplier that takes the given time, unless interrupted first
+    static OneSource<Integer> stalling(final Duration stall) {
+        return new Supply<>(() -> {
+            try {
+                Thread.sleep(stall.toMillis());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return 1;
+        });
+    }
+
+    private Graphs() {}
+}
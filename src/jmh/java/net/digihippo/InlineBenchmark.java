@@ -0,0 +1,56 @@
+package net.digihippo;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Duration;
+import java.time.temporal.ChronoUnit;
+import java.util.concurrent.TimeUnit;
+
+// A supplier followed by three trivial maps, like the chains in DaggerTest, kept as separate
+// stages. "dispatched" hops to the pool for every map, "declared" uses mapInline, and "learned"
+// leaves it to StageCosts, which runs the maps inline once they have proved cheap.
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InlineBenchmark {
+    @Param({"dispatched", "declared", "learned"})
+    public String placement;
+
+    private AsynchronousExecutor executor;
+    private OneSource<String> graph;
+
+    @Setup
+    public void start() {
+        final StageCosts stageCosts =
+                "learned".equals(placement) ? new StageCosts(Duration.of(20, ChronoUnit.MICROS)) : null;
+        executor = new AsynchronousExecutor(ExecutionBackend.fixed(10), Instrumentation.NONE, null, stageCosts);
+        final OneSource<String> words = new Supply<>(() -> "hello world");
+        if ("declared".equals(placement))
+        {
+            graph = words
+                    .mapInline(String::length)
+                    .mapInline(l -> l + 15)
+                    .mapInline(l -> Long.toString(l));
+        }
+        else
+        {
+            graph = words
+                    .mapSeparately(String::length)
+                    .mapSeparately(l -> l + 15)
+                    .mapSeparately(l -> Long.toString(l));
+        }
+    }
+
+    @TearDown
+    public void stop() {
+        executor.shutdown();
+    }
+
+    @Benchmark
+    public Result<String> chain() {
+        return graph.asyncExec(executor).join();
+    }
+}
@@ -0,0 +1,35 @@
+package net.digihippo;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JoinTreeBenchmark {
+    @Param({"2", "4", "6"})
+    public int depth;
+
+    private OneSource<Integer> tree;
+    private OneSource<Integer> compiled;
+
+    @Setup
+    public void build() {
+        tree = Graphs.joinTree(depth);
+        compiled = Graphs.joinTree(depth).compile();
+    }
+
+    @Benchmark
+    public Result<Integer> tree(ExecutorState executor) {
+        return executor.evaluate(tree);
+    }
+
+    @Benchmark
+    public Result<Integer> compiled(ExecutorState executor) {
+        return executor.evaluate(compiled);
+    }
+}
@@ -0,0 +1,42 @@
+package net.digihippo;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LinearChainBenchmark {
+    @Param({"1", "10"})
+    public int length;
+
+    private OneSource<Integer> fused;
+    private OneSource<Integer> separate;
+    private OneSource<Integer> compiled;
+
+    @Setup
+    public void build() {
+        fused = Graphs.linearChain(length, true);
+        separate = Graphs.linearChain(length, false);
+        compiled = Graphs.linearChain(length, false).compile();
+    }
+
+    @Benchmark
+    public Result<Integer> fused(ExecutorState executor) {
+        return executor.evaluate(fused);
+    }
+
+    @Benchmark
+    public Result<Integer> separate(ExecutorState executor) {
+        return executor.evaluate(separate);
+    }
+
+    @Benchmark
+    public Result<Integer> compiledSeparate(ExecutorState executor) {
+        return executor.evaluate(compiled);
+    }
+}
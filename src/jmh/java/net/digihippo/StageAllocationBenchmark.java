@@ -0,0 +1,70 @@
+package net.digihippo;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+// What each map and join stage allocates, on the success path and once a failure is passing
+// through. Chains of 1 and of 10 unfused maps differ only in their stages, so the difference
+// in gc.alloc.rate.norm between the two, over 9, is the cost of one stage. The immediate
+// executor keeps thread pools' own allocation out of it. Run through main, which adds the
+// GC profiler itself:
+//   java -cp target/benchmarks.jar net.digihippo.StageAllocationBenchmark
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StageAllocationBenchmark {
+    @Param({"1", "10"})
+    public int length;
+
+    private final Executor executor = new ImmediateExecutor();
+    private OneSource<Integer> succeeding;
+    private OneSource<Integer> failing;
+    private OneSource<Integer> joined;
+
+    @Setup
+    public void build() {
+        succeeding = chain(new Supply<>(() -> 1));
+        failing = chain(new Supply<>(() -> {
+            throw new IllegalStateException("down");
+        }));
+        joined = new TwoSource<>(chain(new Supply<>(() -> 1)), new Supply<>(() -> 2)).join(Integer::sum);
+    }
+
+    @Benchmark
+    public Result<Integer> succeeding() {
+        return succeeding.asyncExec(executor).join();
+    }
+
+    @Benchmark
+    public Result<Integer> failing() {
+        return failing.asyncExec(executor).join();
+    }
+
+    @Benchmark
+    public Result<Integer> joined() {
+        return joined.asyncExec(executor).join();
+    }
+
+    private OneSource<Integer> chain(final OneSource<Integer> source) {
+        OneSource<Integer> graph = source;
+        for (int i = 0; i < length; i++) {
+            graph = graph.mapSeparately(x -> x + 1);
+        }
+        return graph;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include("^" + StageAllocationBenchmark.class.getName() + "\\.")
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
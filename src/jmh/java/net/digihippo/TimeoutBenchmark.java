@@ -0,0 +1,54 @@
+package net.digihippo;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+// Evaluations under request-scoped deadlines. In withTimeout the timeout is scheduled and then
+// cancelled, as the graph finishes in time; in timingOut one supplier stalls well past the
+// deadline, so every evaluation times out: the timeout fires, fails the evaluation and
+// interrupts the supplier. The immediate executor cannot interrupt a supplier running on the
+// caller's thread, so there it times out once the stall is over, as the next stage is dropped.
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TimeoutBenchmark {
+    private static final Duration GENEROUS = Duration.ofSeconds(1);
+    private static final Duration TIGHT = Duration.ofNanos(200_000);
+    private static final Duration STALL = Duration.ofMillis(2);
+
+    private OneSource<Integer> graph;
+    private OneSource<Integer> stalling;
+
+    @Setup
+    public void build(ExecutorState executor) {
+        graph = Graphs.joinTree(3);
+        stalling = new TwoSource<>(Graphs.joinTree(2), Graphs.stalling(STALL).map(x -> x + 1)).join(Integer::sum);
+
+        final Exception failure = executor.evaluate(stalling, TIGHT).fold(e -> e, s -> null);
+        if (!(failure instanceof TimeoutException))
+        {
+            throw new IllegalStateException("Expected the stalling graph to time out, but got " + failure);
+        }
+    }
+
+    @Benchmark
+    public Result<Integer> withoutTimeout(ExecutorState executor) {
+        return executor.evaluate(graph);
+    }
+
+    @Benchmark
+    public Result<Integer> withTimeout(ExecutorState executor) {
+        return executor.evaluate(graph, GENEROUS);
+    }
+
+    @Benchmark
+    public Result<Integer> timingOut(ExecutorState executor) {
+        return executor.evaluate(stalling, TIGHT);
+    }
+}
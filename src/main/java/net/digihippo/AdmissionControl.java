@@ -0,0 +1,183 @@
+package net.digihippo;
+
+import java.time.Duration;
+import java.util.AbstractMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+// Caps the evaluations an executor runs at once, and stops admitting new ones while too many
+// of its tasks are waiting for a worker. Once admitted an evaluation's tasks are never refused,
+// so nothing is left half run; what happens to a caller arriving while full is the policy's call.
+final class AdmissionControl {
+    enum Policy {
+        // fail the new evaluation with an OverloadedException
+        REJECT,
+        // make the caller wait for room, for no longer than its deadline or the maximum wait
+        BLOCK,
+        // fail the oldest running evaluation with an OverloadedException, and admit the new one
+        SHED_OLDEST
+    }
+
+    private final int maxInFlight;
+    private final int maxQueued;
+    private final Policy policy;
+    private final long maxWaitNanos;
+    // admission order, so the first entry is always the oldest
+    private final LinkedHashMap<Evaluation, Consumer<Exception>> inFlight = new LinkedHashMap<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder shed = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+
+    AdmissionControl(int maxInFlight, int maxQueued, Policy policy) {
+        this(maxInFlight, maxQueued, policy, Duration.ofSeconds(1));
+    }
+
+    // a blocked caller with no deadline of its own gives up after maxWait, as overloaded
+    AdmissionControl(int maxInFlight, int maxQueued, Policy policy, Duration maxWait) {
+        this.maxInFlight = maxInFlight;
+        this.maxQueued = maxQueued;
+        this.policy = policy;
+        this.maxWaitNanos = maxWait.toNanos();
+    }
+
+    // whether running evaluations may be abandoned to make room, so need to hear about it
+    boolean sheds() {
+        return policy == Policy.SHED_OLDEST;
+    }
+
+    // Returns null once the evaluation is admitted, or why it was not. An evaluation that is
+    // later shed has the given callback told why.
+    Exception admit(final Evaluation evaluation, final Consumer<Exception> onShed) {
+        final Map.Entry<Evaluation, Consumer<Exception>> victim;
+        synchronized (this) {
+            final long giveUpAt = policy == Policy.BLOCK ? System.nanoTime() + maxWaitNanos : 0L;
+            while (full())
+            {
+                if (policy == Policy.SHED_OLDEST && !inFlight.isEmpty())
+                {
+                    break;
+                }
+                if (policy != Policy.BLOCK)
+                {
+                    rejected.increment();
+                    return overloaded();
+                }
+                final Exception gaveUp = await(evaluation.deadline(), giveUpAt);
+                if (gaveUp != null)
+                {
+                    rejected.increment();
+                    return gaveUp;
+                }
+            }
+            victim = full() ? evictOldest() : null;
+            inFlight.put(evaluation, onShed);
+        }
+        if (victim != null)
+        {
+            // outside the lock, as abandoning runs whatever hooks the evaluation has
+            victim.getKey().abandon(overloaded());
+            victim.getValue().accept(overloaded());
+        }
+        return null;
+    }
+
+    void finished(final Evaluation evaluation) {
+        synchronized (this) {
+            if (inFlight.remove(evaluation) != null)
+            {
+                notifyAll();
+            }
+        }
+    }
+
+    // wraps a pool so that the tasks waiting in it are counted
+    java.util.concurrent.Executor gate(final Evaluation evaluation, final java.util.concurrent.Executor pool) {
+        return task -> {
+            queued.incrementAndGet();
+            try {
+                pool.execute(() -> {
+                    started();
+                    if (evaluation.dropped())
+                    {
+                        // the task still runs, but fails straight away without calling user code
+                        expired.increment();
+                    }
+                    task.run();
+                });
+            } catch (RejectedExecutionException e) {
+                // it never joined the queue after all
+                started();
+                throw e;
+            }
+        };
+    }
+
+    // evaluations refused admission, including those that gave up waiting
+    long rejected() {
+        return rejected.sum();
+    }
+
+    // running evaluations failed to make room for new ones
+    long shed() {
+        return shed.sum();
+    }
+
+    // tasks dropped, when they reached a worker, because their evaluation had timed out or been shed
+    long expired() {
+        return expired.sum();
+    }
+
+    int queued() {
+        return queued.get();
+    }
+
+    synchronized int inFlight() {
+        return inFlight.size();
+    }
+
+    private void started() {
+        if (queued.getAndDecrement() == maxQueued)
+        {
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+    }
+
+    private boolean full() {
+        return inFlight.size() >= maxInFlight || queued.get() >= maxQueued;
+    }
+
+    private Map.Entry<Evaluation, Consumer<Exception>> evictOldest() {
+        final Iterator<Map.Entry<Evaluation, Consumer<Exception>>> oldest = inFlight.entrySet().iterator();
+        final Map.Entry<Evaluation, Consumer<Exception>> victim = new AbstractMap.SimpleImmutableEntry<>(oldest.next());
+        oldest.remove();
+        shed.increment();
+        return victim;
+    }
+
+    private Exception await(final Deadline deadline, final long giveUpAt) {
+        try {
+            final long remaining = Math.min(deadline.remainingNanos(), giveUpAt - System.nanoTime());
+            if (remaining <= 0)
+            {
+                return deadline.expired() ? deadline.exceeded() : overloaded();
+            }
+            wait(remaining / 1_000_000, (int) (remaining % 1_000_000));
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return e;
+        }
+    }
+
+    private static OverloadedException overloaded() {
+        return new OverloadedException();
+    }
+}
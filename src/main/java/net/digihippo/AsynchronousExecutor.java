@@ -1,58 +1,455 @@
 package net.digihippo;
 
 import java.time.Duration;
-import java.time.temporal.ChronoUnit;
+import java.util.List;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.BiFunction;
 import java.util.function.Function;
 import java.util.function.Supplier;
 
+import net.digihippo.Instrumentation.Outcome;
+
+import static net.digihippo.Futures.joinAll;
+import static net.digihippo.Result.all;
 import static net.digihippo.Result.failure;
-import static net.digihippo.SaferFunctions.safer;
-import static net.digihippo.Suppliers.wrapExceptions;
+import static net.digihippo.SaferFunctions.applySafely;
 
 final class AsynchronousExecutor implements Executor {
-    private final ScheduledExecutorService executorService = Executors.newScheduledThreadPool(10);
+    private final ExecutionBackend backend;
+    private final Instrumentation instrumentation;
+    private final AdmissionControl admission;
+    private final StageCosts stageCosts;
+    private final boolean failFast;
+    private final AtomicLong cancelledTasks = new AtomicLong();
+    private final LongAdder failedFast = new LongAdder();
+    private final LongAdder skippedStages = new LongAdder();
+
+    AsynchronousExecutor() {
+        this(ExecutionBackend.fixed(10));
+    }
+
+    AsynchronousExecutor(ExecutionBackend backend) {
+        this(backend, Instrumentation.NONE);
+    }
+
+    AsynchronousExecutor(ExecutionBackend backend, Instrumentation instrumentation) {
+        this(backend, instrumentation, null);
+    }
+
+    // with no admission control every evaluation is accepted, and queues are unbounded
+    AsynchronousExecutor(ExecutionBackend backend, Instrumentation instrumentation, AdmissionControl admission) {
+        this(backend, instrumentation, admission, null);
+    }
+
+    // with stage costs, maps that have proved cheap run inline as though declared with mapInline;
+    // only a map node's own stage is timed, other functions given to map are always dispatched
+    AsynchronousExecutor(
+            ExecutionBackend backend,
+            Instrumentation instrumentation,
+            AdmissionControl admission,
+            StageCosts stageCosts) {
+        this(backend, instrumentation, admission, stageCosts, false);
+    }
+
+    // Failing fast, a join fails as soon as any of its inputs does, and the others are abandoned:
+    // their stages not yet run are dropped, and their suppliers interrupted. Each input then
+    // runs as a branch of its own, so this costs a little more per join on the success path.
+    AsynchronousExecutor(
+            ExecutionBackend backend,
+            Instrumentation instrumentation,
+            AdmissionControl admission,
+            StageCosts stageCosts,
+            boolean failFast) {
+        this.backend = backend;
+        this.instrumentation = instrumentation;
+        this.admission = admission;
+        this.stageCosts = stageCosts;
+        this.failFast = failFast;
+    }
 
     @Override
-    public <S, T> CompletableFuture<Result<T>> map(CompletableFuture<Result<S>> futureS, Function<S, T> f) {
-        return futureS.thenApplyAsync(r -> r.flatMap(safer(f)), executorService);
+    public <S, T> CompletableFuture<Result<T>> map(
+            String description,
+            CompletableFuture<Result<S>> futureS,
+            Function<S, T> fn,
+            Evaluation evaluation) {
+        if (stageCosts == null || !(fn instanceof StageCosts.Stage))
+        {
+            return dispatched(description, futureS, fn, evaluation);
+        }
+        final StageCosts.Stage<S, T> stage = (StageCosts.Stage<S, T>) fn;
+        return stageCosts.cheap(stage)
+                ? inline(description, futureS, stage.timed(), evaluation)
+                : dispatched(description, futureS, stage.timed(), evaluation);
     }
 
     @Override
-    public <T> CompletableFuture<Result<T>> supplyAsync(Supplier<T> supplier) {
-        return CompletableFuture.supplyAsync(wrapExceptions(supplier), executorService);
+    public <S, T> CompletableFuture<Result<T>> mapInline(
+            String description,
+            CompletableFuture<Result<S>> futureS,
+            Function<S, T> fn,
+            Evaluation evaluation) {
+        final Function<S, T> f = stageCosts == null || !(fn instanceof StageCosts.Stage)
+                ? fn
+                : ((StageCosts.Stage<S, T>) fn).timed();
+        return inline(description, futureS, f, evaluation);
     }
 
     @Override
-    public <T> CompletableFuture<Result<T>> supplyAsync(Supplier<T> supplier, Duration timeout) {
-        CompletableFuture<Result<T>> result =
-                CompletableFuture.supplyAsync(wrapExceptions(supplier), executorService);
-        executorService.schedule(new Timeout<>(result), timeout.get(ChronoUnit.NANOS), TimeUnit.NANOSECONDS);
+    public <T> CompletableFuture<Result<T>> supplyAsync(
+            String description,
+            Supplier<T> supplier,
+            Evaluation evaluation) {
+        final Deadline deadline = evaluation.deadline();
+        if (deadline.expired())
+        {
+            return CompletableFuture.completedFuture(failure(deadline.exceeded()));
+        }
+        final CompletableFuture<Result<T>> result = new CompletableFuture<>();
+        final Occupancy.Place place = Occupancy.enter(evaluation);
+        final FutureTask<Void> task;
+        if (!instrumentation.enabled())
+        {
+            task = task(() -> result.complete(Occupancy.call(place, supplier, evaluation)), place);
+            submit(suppliers(evaluation), task);
+        }
+        else
+        {
+            // a supplier that finishes after its timeout fired is counted as a timeout
+            final Probe probe = new Probe(instrumentation, description, suppliers(evaluation));
+            task = task(() -> {
+                final long startedAt = System.nanoTime();
+                final Result<T> r = Occupancy.call(place, supplier, evaluation);
+                probe.record(startedAt, result.complete(r) ? Outcome.of(r) : Outcome.TIMEOUT);
+            }, place);
+            submit(probe, task);
+        }
+
+        if (evaluation.abandonable())
+        {
+            evaluation.onAbandoned(() -> {
+                if (result.complete(failure(evaluation.dropReason())))
+                {
+                    cancel(task);
+                }
+            });
+        }
 
+        final ScheduledFuture<?> timeout =
+                deadline.bounded() ? schedule(new Timeout<>(result, deadline, task)) : null;
+        result.whenComplete((r, e) -> {
+            if (timeout != null)
+            {
+                timeout.cancel(false);
+            }
+            if (result.isCancelled())
+            {
+                cancel(task);
+            }
+        });
         return result;
     }
 
     @Override
     public <T, S1, S2> CompletableFuture<Result<T>> mapTwo(
+            String description,
             CompletableFuture<Result<S1>> resultOne,
             CompletableFuture<Result<S2>> resultTwo,
-            BiFunction<S1, S2, T> bif) {
-        return resultOne.thenCombineAsync(
-                resultTwo,
-                (r1, r2) -> r1.flatMap(s1 -> r2.flatMap(s2 -> safer(bif).apply(s1, s2))));
+            BiFunction<S1, S2, T> bif,
+            Evaluation evaluation) {
+        final CompletableFuture<Result<T>> joined;
+        if (!instrumentation.enabled())
+        {
+            joined = resultOne.thenCombineAsync(
+                    resultTwo,
+                    (r1, r2) -> applySafely(r1, r2, bif, evaluation),
+                    stages(evaluation));
+        }
+        else
+        {
+            final Probe probe = new Probe(instrumentation, description, stages(evaluation));
+            joined = resultOne.thenCombineAsync(
+                    resultTwo,
+                    (r1, r2) -> probe.time(() -> applySafely(r1, r2, bif, evaluation)),
+                    probe);
+        }
+        if (failFast)
+        {
+            failFast(joined, resultOne, resultTwo);
+            failFast(joined, resultTwo, resultOne);
+        }
+        return joined;
+    }
+
+    @Override
+    public <T, S> CompletableFuture<Result<T>> mapMany(
+            String description,
+            List<CompletableFuture<Result<S>>> results,
+            Function<List<S>, T> f,
+            Evaluation evaluation) {
+        final CompletableFuture<Void> inputs = CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[0]));
+        final CompletableFuture<Result<T>> joined;
+        if (!instrumentation.enabled())
+        {
+            joined = inputs.thenApplyAsync(
+                    ignored -> applySafely(all(joinAll(results)), f, evaluation),
+                    stages(evaluation));
+        }
+        else
+        {
+            final Probe probe = new Probe(instrumentation, description, stages(evaluation));
+            joined = inputs.thenApplyAsync(
+                    ignored -> probe.time(() -> applySafely(all(joinAll(results)), f, evaluation)),
+                    probe);
+        }
+        if (failFast)
+        {
+            for (CompletableFuture<Result<S>> result : results) {
+                failFast(joined, result, inputs);
+            }
+        }
+        return joined;
+    }
+
+    // Completes a join with an input's failure, as it is, if its other inputs are still running.
+    // The join's own stage then never runs, as its output is already complete.
+    private <T> void failFast(
+            final CompletableFuture<Result<T>> joined,
+            final CompletableFuture<? extends Result<?>> input,
+            final CompletableFuture<?> others) {
+        input.thenAccept(r -> {
+            final Result<T> failed = r.failureOrNull();
+            if (failed != null && !others.isDone() && joined.complete(failed))
+            {
+                failedFast.increment();
+            }
+        });
+    }
+
+    @Override
+    public Evaluation branch(Evaluation evaluation) {
+        return failFast ? evaluation.branch() : evaluation;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        execute(task, TrafficClass.DEFAULT);
+    }
+
+    @Override
+    public void execute(Runnable task, TrafficClass trafficClass) {
+        backend.stages(trafficClass).execute(task);
+    }
+
+    @Override
+    public Future<?> schedule(Runnable task, Duration delay) {
+        return schedule(task, delay, TrafficClass.DEFAULT);
+    }
+
+    // the timer only triggers the task; it runs on the stage pool
+    @Override
+    public Future<?> schedule(Runnable task, Duration delay, TrafficClass trafficClass) {
+        return backend.timer().schedule(() -> execute(task, trafficClass), delay.toNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public <T> CompletableFuture<Result<T>> evaluate(
+            Evaluation evaluation,
+            Supplier<CompletableFuture<Result<T>>> graph) {
+        final Deadline deadline = evaluation.deadline();
+        if (deadline.expired())
+        {
+            return CompletableFuture.completedFuture(failure(deadline.exceeded()));
+        }
+        if (admission == null)
+        {
+            return run(evaluation, graph);
+        }
+
+        if (admission.sheds())
+        {
+            // so that its running suppliers are interrupted, should it be shed
+            evaluation.allowAbandoning();
+        }
+        final CompletableFuture<Result<T>> result = new CompletableFuture<>();
+        final Exception refused = admission.admit(evaluation, e -> result.complete(failure(e)));
+        if (refused != null)
+        {
+            return CompletableFuture.completedFuture(failure(refused));
+        }
+        result.whenComplete((r, e) -> admission.finished(evaluation));
+        try {
+            pipe(run(evaluation, graph), result);
+        } catch (RuntimeException e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    private <S, T> CompletableFuture<Result<T>> dispatched(
+            final String description,
+            final CompletableFuture<Result<S>> futureS,
+            final Function<S, T> f,
+            final Evaluation evaluation) {
+        if (!instrumentation.enabled())
+        {
+            return futureS.thenApplyAsync(r -> applySafely(r, f, evaluation), stages(evaluation));
+        }
+        final Probe probe = new Probe(instrumentation, description, stages(evaluation));
+        return futureS.thenApplyAsync(r -> probe.time(() -> applySafely(r, f, evaluation)), probe);
+    }
+
+    private <S, T> CompletableFuture<Result<T>> inline(
+            final String description,
+            final CompletableFuture<Result<S>> futureS,
+            final Function<S, T> f,
+            final Evaluation evaluation) {
+        if (!instrumentation.enabled())
+        {
+            return futureS.thenApply(r -> applySafely(r, f, evaluation));
+        }
+        final Probe probe = new Probe(instrumentation, description, null);
+        return futureS.thenApply(r -> probe.time(() -> applySafely(r, f, evaluation)));
+    }
+
+    private <T> CompletableFuture<Result<T>> run(
+            final Evaluation evaluation,
+            final Supplier<CompletableFuture<Result<T>>> graph) {
+        final Deadline deadline = evaluation.deadline();
+        final CompletableFuture<Result<T>> running = graph.get();
+        if (!deadline.bounded() || running.isDone())
+        {
+            return running;
+        }
+
+        // a fresh future, so that timing out never completes one that is shared within the graph
+        final CompletableFuture<Result<T>> result = new CompletableFuture<>();
+        final ScheduledFuture<?> timeout = schedule(new Timeout<>(result, deadline, null));
+        running.whenComplete((r, e) -> {
+            timeout.cancel(false);
+            complete(result, r, e);
+        });
+        return result;
+    }
+
+    private static <T> void pipe(final CompletableFuture<T> from, final CompletableFuture<T> to) {
+        from.whenComplete((r, e) -> complete(to, r, e));
+    }
+
+    private static <T> void complete(final CompletableFuture<T> future, final T r, final Throwable e) {
+        if (e == null)
+        {
+            future.complete(r);
+        }
+        else
+        {
+            future.completeExceptionally(e);
+        }
+    }
+
+    // suppliers interrupted or dropped because nobody is waiting for their result any more,
+    // e.g. in a branch abandoned once its sibling failed
+    long cancelledTasks() {
+        return cancelledTasks.get();
+    }
+
+    // The work saved by failing fast: joins completed without waiting for their other inputs,
+    // and stages of dropped branches that reached a worker but did not run.
+    long failedFast() {
+        return failedFast.sum();
+    }
+
+    long skippedStages() {
+        return skippedStages.sum();
+    }
+
+    void shutdown() {
+        backend.shutdown();
+    }
+
+    private java.util.concurrent.Executor stages(final Evaluation evaluation) {
+        return gated(evaluation, backend.stages(evaluation.trafficClass()));
+    }
+
+    private java.util.concurrent.Executor suppliers(final Evaluation evaluation) {
+        return gated(evaluation, backend.suppliers(evaluation.trafficClass()));
+    }
+
+    private java.util.concurrent.Executor gated(
+            final Evaluation evaluation,
+            final java.util.concurrent.Executor pool) {
+        final java.util.concurrent.Executor admitted = admission == null ? pool : admission.gate(evaluation, pool);
+        if (!evaluation.branched())
+        {
+            return admitted;
+        }
+        return task -> admitted.execute(() -> {
+            if (evaluation.dropped())
+            {
+                // the task still runs, but fails straight away without calling user code
+                skippedStages.increment();
+            }
+            task.run();
+        });
+    }
+
+    // A supplier task, which leaves its place in a guarded run should it be cancelled before it
+    // starts; once started, it leaves when its supplier returns.
+    private static FutureTask<Void> task(final Runnable body, final Occupancy.Place place) {
+        if (place == null)
+        {
+            return new FutureTask<>(body, null);
+        }
+        return new FutureTask<Void>(body, null) {
+            @Override
+            protected void done() {
+                if (isCancelled())
+                {
+                    place.abandon();
+                }
+            }
+        };
+    }
+
+    private static void submit(final java.util.concurrent.Executor pool, final FutureTask<Void> task) {
+        try {
+            pool.execute(task);
+        } catch (RejectedExecutionException e) {
+            task.cancel(false);
+            throw e;
+        }
+    }
+
+    private ScheduledFuture<?> schedule(final Timeout<?> timeout) {
+        return backend.timer().schedule(timeout, timeout.deadline.remainingNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    private void cancel(final Future<?> task) {
+        if (task.cancel(true))
+        {
+            cancelledTasks.incrementAndGet();
+        }
     }
 
     private final class Timeout<T> implements Runnable {
         private final CompletableFuture<Result<T>> result;
+        private final Deadline deadline;
+        private final Future<?> task;
 
-        Timeout(CompletableFuture<Result<T>> result) {
+        Timeout(CompletableFuture<Result<T>> result, Deadline deadline, Future<?> task) {
             this.result = result;
+            this.deadline = deadline;
+            this.task = task;
         }
 
         @Override
         public void run() {
-            result.complete(failure(new TimeoutException("bad luck, timed out")));
+            if (result.complete(failure(deadline.exceeded())) && task != null)
+            {
+                cancel(task);
+            }
         }
     }
 }
@@ -0,0 +1,27 @@
+package net.digihippo;
+
+import java.util.concurrent.CompletableFuture;
+
+import static net.digihippo.Result.failure;
+
+class BatchMapSource<S, T> implements OneSource<T> {
+    private final OneSource<S> oneSource;
+    private final Batcher<S, T> batcher;
+
+    BatchMapSource(OneSource<S> oneSource, Batcher<S, T> batcher) {
+        this.oneSource = oneSource;
+        this.batcher = batcher;
+    }
+
+    @Override
+    public CompletableFuture<Result<T>> asyncExec(Executor executor, Evaluation evaluation) {
+        return oneSource.asyncExec(executor, evaluation).thenCompose(r -> r.fold(
+                e -> CompletableFuture.completedFuture(failure(e)),
+                s -> batcher.submit(s, executor, evaluation)));
+    }
+
+    @Override
+    public int addTo(Plan.Builder plan) {
+        return plan.batch(oneSource.addTo(plan), batcher);
+    }
+}
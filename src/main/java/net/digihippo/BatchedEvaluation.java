@@ -0,0 +1,121 @@
+package net.digihippo;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static net.digihippo.Futures.asException;
+import static net.digihippo.Result.failure;
+import static net.digihippo.Result.success;
+
+// Runs one graph over many inputs as a single evaluation: admitted once, on the caller's thread,
+// and bounded by one deadline. The graph is compiled once, and each input runs the plan in slots
+// of its own, in a fork of the batch's evaluation with the input bound to its value. Inputs are
+// started a chunk at a time, by one task per chunk, rather than all from the caller's thread.
+final class BatchedEvaluation {
+    static <I, T> CompletableFuture<List<Result<T>>> evaluate(
+            final OneSource<T> graph,
+            final Input<I> input,
+            final List<I> values,
+            final Executor executor,
+            final Deadline deadline,
+            final int chunkSize) {
+        if (chunkSize <= 0)
+        {
+            throw new IllegalArgumentException("chunkSize must be positive, was " + chunkSize);
+        }
+        if (values.isEmpty())
+        {
+            return CompletableFuture.completedFuture(new ArrayList<>());
+        }
+        final Plan.Builder builder = new Plan.Builder();
+        final int output = graph.addTo(builder);
+        final Plan plan = builder.build(output);
+
+        final Evaluation batch = new Evaluation(deadline);
+        final Results<T> results = new Results<>(values.size());
+        executor.<List<Result<T>>>evaluate(batch, () -> {
+            for (int from = 0; from < values.size(); from += chunkSize) {
+                final int start = from;
+                final int end = Math.min(values.size(), from + chunkSize);
+                try {
+                    executor.execute(
+                            () -> startChunk(plan, output, input, values, start, end, executor, batch, results),
+                            batch.trafficClass());
+                } catch (RuntimeException e) {
+                    results.failFrom(start, end, e);
+                }
+            }
+            return results.all.thenApply(Result::success);
+        }).whenComplete((r, e) -> {
+            // refused, shed or timed out: whatever has not finished by now never will
+            final Exception failed = e == null ? r.fold(f -> f, s -> null) : asException(e);
+            if (failed != null)
+            {
+                results.failFrom(0, values.size(), failed);
+            }
+        });
+        return results.all;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <I, T> void startChunk(
+            final Plan plan,
+            final int output,
+            final Input<I> input,
+            final List<I> values,
+            final int start,
+            final int end,
+            final Executor executor,
+            final Evaluation batch,
+            final Results<T> results) {
+        int i = start;
+        try {
+            for (; i < end; i++) {
+                final int index = i;
+                final Evaluation evaluation = batch.fork();
+                evaluation.bind(input, CompletableFuture.completedFuture(success(values.get(index))));
+                ((CompletableFuture<Result<T>>) plan.run(executor, evaluation, output))
+                        .whenComplete((r, e) -> results.finish(index, e == null ? r : failure(asException(e))));
+            }
+        } catch (RuntimeException | Error e) {
+            // the rest of the chunk never started, but the batch must still complete
+            results.failFrom(i, end, asException(e));
+            throw e;
+        }
+    }
+
+    // One slot per input, each filled at most once, whichever of its result and the
+    // deadline arrives first.
+    private static final class Results<T> {
+        private final AtomicReferenceArray<Result<T>> slots;
+        private final AtomicInteger remaining;
+        private final CompletableFuture<List<Result<T>>> all = new CompletableFuture<>();
+
+        private Results(final int size) {
+            this.slots = new AtomicReferenceArray<>(size);
+            this.remaining = new AtomicInteger(size);
+        }
+
+        void finish(final int index, final Result<T> result) {
+            if (slots.compareAndSet(index, null, result) && remaining.decrementAndGet() == 0)
+            {
+                final List<Result<T>> list = new ArrayList<>(slots.length());
+                for (int i = 0; i < slots.length(); i++) {
+                    list.add(slots.get(i));
+                }
+                all.complete(list);
+            }
+        }
+
+        void failFrom(final int start, final int end, final Exception e) {
+            for (int i = start; i < end; i++) {
+                finish(i, failure(e));
+            }
+        }
+    }
+
+    private BatchedEvaluation() {}
+}
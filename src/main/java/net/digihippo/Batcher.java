@@ -0,0 +1,166 @@
+package net.digihippo;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+import static net.digihippo.Result.failure;
+import static net.digihippo.Result.success;
+
+// Collects inputs from any number of concurrent evaluations and hands them to the batch
+// function together, once maxBatchSize have arrived or maxDelay has passed since the first.
+final class Batcher<S, T> {
+    private final Function<List<S>, List<T>> batchFunction;
+    private final int maxBatchSize;
+    private final Duration maxDelay;
+
+    private Batch open = null;
+
+    Batcher(Function<List<S>, List<T>> batchFunction, int maxBatchSize, Duration maxDelay) {
+        if (maxBatchSize < 1)
+        {
+            throw new IllegalArgumentException("Batches must hold at least one input, was " + maxBatchSize);
+        }
+        this.batchFunction = batchFunction;
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelay = maxDelay;
+    }
+
+    // The batch is flushed in the traffic class of whichever caller fills it, or opens it
+    // if it is flushed when its delay has passed.
+    CompletableFuture<Result<T>> submit(final S input, final Executor executor, final Evaluation evaluation) {
+        if (evaluation.dropped())
+        {
+            return CompletableFuture.completedFuture(failure(evaluation.dropReason()));
+        }
+        final CompletableFuture<Result<T>> result = new CompletableFuture<>();
+        final Batch batch;
+        final boolean opened;
+        final boolean full;
+        synchronized (this)
+        {
+            opened = open == null;
+            if (opened)
+            {
+                open = new Batch();
+            }
+            batch = open;
+            batch.add(input, result, evaluation);
+            full = batch.size() >= maxBatchSize;
+            if (full)
+            {
+                open = null;
+            }
+        }
+
+        final TrafficClass trafficClass = evaluation.trafficClass();
+        if (full)
+        {
+            executor.execute(batch::flush, trafficClass);
+        }
+        else if (opened)
+        {
+            batch.flushAfter(executor.schedule(batch::flush, maxDelay, trafficClass));
+        }
+        return result;
+    }
+
+    private final class Batch {
+        private final List<S> inputs = new ArrayList<>();
+        private final List<CompletableFuture<Result<T>>> results = new ArrayList<>();
+        private final List<Evaluation> evaluations = new ArrayList<>();
+        // both guarded by the batcher's lock
+        private boolean flushed = false;
+        private Future<?> timer = null;
+
+        void add(S input, CompletableFuture<Result<T>> result, Evaluation evaluation) {
+            inputs.add(input);
+            results.add(result);
+            evaluations.add(evaluation);
+        }
+
+        int size() {
+            return inputs.size();
+        }
+
+        // the timer that flushes the batch should it not fill up first
+        void flushAfter(final Future<?> timer) {
+            synchronized (Batcher.this)
+            {
+                if (!flushed)
+                {
+                    this.timer = timer;
+                    return;
+                }
+            }
+            timer.cancel(false);
+        }
+
+        void flush() {
+            final Future<?> timer;
+            synchronized (Batcher.this)
+            {
+                if (flushed)
+                {
+                    return;
+                }
+                flushed = true;
+                if (open == this)
+                {
+                    open = null;
+                }
+                timer = this.timer;
+                this.timer = null;
+            }
+            if (timer != null)
+            {
+                timer.cancel(false);
+            }
+
+            final List<S> live = new ArrayList<>(inputs.size());
+            final List<CompletableFuture<Result<T>>> waiting = new ArrayList<>(inputs.size());
+            // callers timed out, shed or abandoned while the batch filled up are left out of it
+            for (int i = 0; i < inputs.size(); i++) {
+                final Evaluation evaluation = evaluations.get(i);
+                if (evaluation.dropped())
+                {
+                    results.get(i).complete(failure(evaluation.dropReason()));
+                }
+                else
+                {
+                    live.add(inputs.get(i));
+                    waiting.add(results.get(i));
+                }
+            }
+            if (live.isEmpty())
+            {
+                return;
+            }
+
+            final List<T> outputs;
+            try {
+                outputs = batchFunction.apply(live);
+                if (outputs.size() != live.size())
+                {
+                    throw new IllegalStateException(
+                            "Batch function returned " + outputs.size() + " results for " + live.size() + " inputs");
+                }
+            } catch (RuntimeException e) {
+                waiting.forEach(r -> r.complete(failure(e)));
+                return;
+            } catch (Error e) {
+                // the callers still get an answer, but the error carries on
+                final Exception failed = new ExecutionException(e);
+                waiting.forEach(r -> r.complete(failure(failed)));
+                throw e;
+            }
+            for (int i = 0; i < waiting.size(); i++) {
+                waiting.get(i).complete(success(outputs.get(i)));
+            }
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package net.digihippo;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+
+// Caps how many runs of a source are in flight at once, across all evaluations, so that a
+// slow dependency can only ever tie up that many workers. Calls beyond the cap fail fast. A run
+// holds its permit until its suppliers have returned, even those still blocked past a timeout.
+final class Bulkhead implements Guard {
+    private final String name;
+    private final int maxConcurrent;
+    private final Semaphore permits;
+    private final LongAdder rejected = new LongAdder();
+    // the same for every run, as a permit is a permit
+    private final Pass admitted = new Pass() {
+        @Override
+        public void released() {
+            permits.release();
+        }
+    };
+
+    Bulkhead(String name, int maxConcurrent) {
+        this.name = name;
+        this.maxConcurrent = maxConcurrent;
+        this.permits = new Semaphore(maxConcurrent);
+    }
+
+    @Override
+    public Pass enter() {
+        if (permits.tryAcquire())
+        {
+            return admitted;
+        }
+        rejected.increment();
+        return Pass.refused(new OverloadedException("bulkhead " + name + " is full"));
+    }
+
+    int active() {
+        return maxConcurrent - permits.availablePermits();
+    }
+
+    long rejected() {
+        return rejected.sum();
+    }
+
+    @Override
+    public String toString() {
+        return name + ": active=" + active() + "/" + maxConcurrent + ", rejected=" + rejected();
+    }
+}
@@ -0,0 +1,20 @@
+package net.digihippo;
+
+import java.util.concurrent.CompletableFuture;
+
+class CachedSource<K, T> implements OneSource<T> {
+    private final OneSource<T> oneSource;
+    private final SourceCache<K, T> cache;
+    private final K key;
+
+    CachedSource(OneSource<T> oneSource, SourceCache<K, T> cache, K key) {
+        this.oneSource = oneSource;
+        this.cache = cache;
+        this.key = key;
+    }
+
+    @Override
+    public CompletableFuture<Result<T>> asyncExec(Executor executor, Evaluation evaluation) {
+        return cache.get(key, () -> oneSource.asyncExec(executor, evaluation));
+    }
+}
@@ -0,0 +1,222 @@
+package net.digihippo;
+
+import java.time.Duration;
+import java.util.function.LongSupplier;
+
+// Fails calls fast while a source's recent failure rate is too high. Timeouts count as failures.
+// CLOSED: calls run, and the last `window` outcomes are kept; once at least `minimumCalls` of
+// them are in and the failure rate reaches the threshold, the breaker trips.
+// OPEN: every call fails fast until `openFor` has passed.
+// HALF_OPEN: up to `probes` calls run; if they all succeed the breaker closes, else it trips again,
+// as it also does if they have not all come back within `probeTimeout`.
+// A call only counts towards the state it was let in under; one still running when the breaker
+// moves on has no say in what it does next.
+final class CircuitBreaker implements Guard {
+    enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final String name;
+    private final double failureRateThreshold;
+    private final int minimumCalls;
+    private final long openForNanos;
+    private final int probes;
+    private final long probeTimeoutNanos;
+    private final LongSupplier nanoClock;
+
+    // a ring of recent outcomes, true for a failure
+    private final boolean[] outcomes;
+    private int recorded = 0;
+    private int failures = 0;
+    private int next = 0;
+
+    private State state = State.CLOSED;
+    // moves on whenever the state changes, so that late calls can be told apart
+    private long generation = 0;
+    private long openedAt;
+    private long halfOpenedAt;
+    private int probesStarted;
+    private int probesSucceeded;
+    private long trips = 0;
+    private long rejected = 0;
+
+    CircuitBreaker(
+            String name,
+            double failureRateThreshold,
+            int window,
+            int minimumCalls,
+            Duration openFor,
+            int probes) {
+        this(name, failureRateThreshold, window, minimumCalls, openFor, probes, System::nanoTime);
+    }
+
+    // probes are given as long to come back as the breaker stayed open
+    CircuitBreaker(
+            String name,
+            double failureRateThreshold,
+            int window,
+            int minimumCalls,
+            Duration openFor,
+            int probes,
+            LongSupplier nanoClock) {
+        this(name, failureRateThreshold, window, minimumCalls, openFor, probes, openFor, nanoClock);
+    }
+
+    CircuitBreaker(
+            String name,
+            double failureRateThreshold,
+            int window,
+            int minimumCalls,
+            Duration openFor,
+            int probes,
+            Duration probeTimeout,
+            LongSupplier nanoClock) {
+        if (window < 1)
+        {
+            throw new IllegalArgumentException("Window must hold at least one call, was " + window);
+        }
+        if (probes < 1)
+        {
+            throw new IllegalArgumentException("Probes must be at least one, was " + probes);
+        }
+        this.name = name;
+        this.failureRateThreshold = failureRateThreshold;
+        this.outcomes = new boolean[window];
+        this.minimumCalls = Math.min(minimumCalls, window);
+        this.openForNanos = openFor.toNanos();
+        this.probes = probes;
+        this.probeTimeoutNanos = probeTimeout.toNanos();
+        this.nanoClock = nanoClock;
+    }
+
+    @Override
+    public synchronized Pass enter() {
+        final long now = nanoClock.getAsLong();
+        if (state == State.OPEN && now - openedAt >= openForNanos)
+        {
+            state = State.HALF_OPEN;
+            generation++;
+            halfOpenedAt = now;
+            probesStarted = 0;
+            probesSucceeded = 0;
+        }
+        if (state == State.HALF_OPEN && now - halfOpenedAt >= probeTimeoutNanos)
+        {
+            // a probe that never comes back must not hold the breaker half open for good
+            trip();
+        }
+        if (state == State.CLOSED)
+        {
+            return new Call(generation);
+        }
+        if (state == State.HALF_OPEN && probesStarted < probes)
+        {
+            probesStarted++;
+            return new Call(generation);
+        }
+        rejected++;
+        return Pass.refused(new OverloadedException("circuit " + name + " is " + state));
+    }
+
+    private synchronized void exit(final long admittedIn, final Result<?> result) {
+        if (admittedIn != generation)
+        {
+            // let in under a state the breaker has since left; it has already had its say
+            return;
+        }
+        final boolean failed = result == null || result.fold(e -> true, s -> false);
+        switch (state) {
+            case CLOSED:
+                record(failed);
+                if (recorded >= minimumCalls && failures >= failureRateThreshold * recorded)
+                {
+                    trip();
+                }
+                break;
+            case HALF_OPEN:
+                if (failed)
+                {
+                    trip();
+                }
+                else if (++probesSucceeded == probes)
+                {
+                    state = State.CLOSED;
+                    generation++;
+                    clear();
+                }
+                break;
+            case OPEN:
+                // nothing is let in while open
+                break;
+        }
+    }
+
+    synchronized State state() {
+        return state;
+    }
+
+    // how many times the breaker has opened
+    synchronized long trips() {
+        return trips;
+    }
+
+    // calls failed fast, while open or half open
+    synchronized long rejected() {
+        return rejected;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return name + ": " + state + ", trips=" + trips + ", rejected=" + rejected +
+                ", failures=" + failures + "/" + recorded;
+    }
+
+    private void record(final boolean failed) {
+        if (recorded == outcomes.length)
+        {
+            if (outcomes[next])
+            {
+                failures--;
+            }
+        }
+        else
+        {
+            recorded++;
+        }
+        outcomes[next] = failed;
+        if (failed)
+        {
+            failures++;
+        }
+        next = (next + 1) % outcomes.length;
+    }
+
+    private void trip() {
+        state = State.OPEN;
+        generation++;
+        openedAt = nanoClock.getAsLong();
+        trips++;
+        clear();
+    }
+
+    private void clear() {
+        recorded = 0;
+        failures = 0;
+        next = 0;
+    }
+
+    private final class Call implements Pass {
+        private final long admittedIn;
+
+        private Call(long admittedIn) {
+            this.admittedIn = admittedIn;
+        }
+
+        @Override
+        public void exit(Result<?> result) {
+            CircuitBreaker.this.exit(admittedIn, result);
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package net.digihippo;
+
+import java.util.concurrent.CompletableFuture;
+
+// One output of a compiled plan. Outputs of the same plan share a single run per evaluation,
+// which only starts the steps of the outputs actually read.
+class CompiledSource<T> implements OneSource<T> {
+    private final Plan plan;
+    private final int output;
+
+    CompiledSource(Plan plan, int output) {
+        this.plan = plan;
+        this.output = output;
+    }
+
+    Plan plan() {
+        return plan;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public CompletableFuture<Result<T>> asyncExec(Executor executor, Evaluation evaluation) {
+        if (plan.outputCount() == 1)
+        {
+            return (CompletableFuture<Result<T>>) plan.run(executor, evaluation, output);
+        }
+        // the steps are shared between outputs, so run under whatever shared nodes run under
+        final Evaluation owner = evaluation.sharing();
+        return evaluation.shared(plan, () -> CompletableFuture.completedFuture(plan.slots()))
+                .thenCompose(slots -> (CompletableFuture<Result<T>>) plan.start(executor, owner, slots, output));
+    }
+}
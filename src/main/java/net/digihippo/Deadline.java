@@ -0,0 +1,37 @@
+package net.digihippo;
+
+import java.time.Duration;
+import java.util.concurrent.TimeoutException;
+
+// A point in time by which a whole evaluation must complete, shared by every node in it.
+final class Deadline {
+    static final Deadline NONE = new Deadline(false, 0L);
+
+    private final boolean bounded;
+    private final long expiresAtNanos;
+
+    private Deadline(boolean bounded, long expiresAtNanos) {
+        this.bounded = bounded;
+        this.expiresAtNanos = expiresAtNanos;
+    }
+
+    static Deadline after(final Duration timeout) {
+        return new Deadline(true, System.nanoTime() + timeout.toNanos());
+    }
+
+    boolean bounded() {
+        return bounded;
+    }
+
+    boolean expired() {
+        return bounded && System.nanoTime() - expiresAtNanos >= 0;
+    }
+
+    long remainingNanos() {
+        return bounded ? Math.max(0L, expiresAtNanos - System.nanoTime()) : Long.MAX_VALUE;
+    }
+
+    TimeoutException exceeded() {
+        return new TimeoutException("bad luck, timed out");
+    }
+}
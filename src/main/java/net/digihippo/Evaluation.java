@@ -0,0 +1,292 @@
+package net.digihippo;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.function.Supplier;
+
+// One run of a graph. Graphs themselves hold no per-run state, so a graph built once can be
+// evaluated any number of times, concurrently; everything a run needs to share lives here.
+final class Evaluation {
+    @SuppressWarnings("rawtypes") // a field updater cannot name a parameterised type
+    private static final AtomicReferenceFieldUpdater<Evaluation, ConcurrentHashMap> SHARED =
+            AtomicReferenceFieldUpdater.newUpdater(Evaluation.class, ConcurrentHashMap.class, "shared");
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<Evaluation, ConcurrentHashMap> BOUND =
+            AtomicReferenceFieldUpdater.newUpdater(Evaluation.class, ConcurrentHashMap.class, "bound");
+
+    private final Deadline deadline;
+    private final Trace trace;
+    private final TrafficClass trafficClass;
+    private final Evaluation parent;
+    // a branch shares its parent's nodes; a fork starts afresh
+    private final boolean branch;
+    private final boolean sharesNodes;
+    // the guarded run this is part of, if any, counting the supplier tasks it has started
+    private final Occupancy occupancy;
+
+    // set when the evaluation is shed to make room for others, or a branch is no longer wanted
+    private volatile Exception abandoned = null;
+
+    // Run once, when the evaluation is abandoned. Only created where something may abandon it:
+    // for branches, for evaluations an executor may shed, and for everything within those.
+    private volatile ConcurrentLinkedQueue<Runnable> onAbandoned = null;
+
+    // created on first use, as most graphs have no shared nodes
+    private volatile ConcurrentHashMap<Object, CompletableFuture<?>> shared = null;
+
+    // values bound to inputs, which, unlike the nodes run so far, forks see too
+    private volatile ConcurrentHashMap<Object, CompletableFuture<?>> bound = null;
+
+    Evaluation(Deadline deadline) {
+        this(deadline, null);
+    }
+
+    Evaluation(Deadline deadline, Trace trace) {
+        this(deadline, trace, TrafficClass.DEFAULT);
+    }
+
+    Evaluation(Deadline deadline, Trace trace, TrafficClass trafficClass) {
+        this(deadline, trace, trafficClass, null, false, false, null);
+    }
+
+    private Evaluation(
+            Deadline deadline,
+            Trace trace,
+            TrafficClass trafficClass,
+            Evaluation parent,
+            boolean branch,
+            boolean sharesNodes,
+            Occupancy occupancy) {
+        this.deadline = deadline;
+        this.trace = trace;
+        this.trafficClass = trafficClass;
+        this.parent = parent;
+        this.branch = branch;
+        this.sharesNodes = sharesNodes;
+        this.occupancy = occupancy;
+    }
+
+    static Evaluation unbounded() {
+        return new Evaluation(Deadline.NONE);
+    }
+
+    static Evaluation within(final Duration timeout) {
+        return new Evaluation(Deadline.after(timeout));
+    }
+
+    Deadline deadline() {
+        return deadline;
+    }
+
+    TrafficClass trafficClass() {
+        return trafficClass;
+    }
+
+    // Part of this evaluation with nothing shared yet, e.g. for running a subgraph again, though
+    // its inputs keep their values. It is dropped whenever this evaluation is.
+    Evaluation fork() {
+        return child(false, false, occupancy);
+    }
+
+    // Part of this evaluation that can be abandoned on its own, e.g. one input of a join, but
+    // which shares its nodes. Abandoning an evaluation abandons the branches and forks within it.
+    Evaluation branch() {
+        return child(true, true, occupancy);
+    }
+
+    // Part of this evaluation, sharing its nodes, run on behalf of a guarded source. Its supplier
+    // tasks hold places in the occupancy, and those of the guarded runs within it.
+    Evaluation occupiedBy(final Occupancy occupancy) {
+        return child(false, true, occupancy);
+    }
+
+    private Evaluation child(final boolean branch, final boolean sharesNodes, final Occupancy occupancy) {
+        final Evaluation child =
+                new Evaluation(deadline, trace, trafficClass, this, branch, sharesNodes, occupancy);
+        if (branch || abandonable())
+        {
+            child.allowAbandoning();
+        }
+        if (abandonable())
+        {
+            onAbandoned(() -> child.abandon(dropReason()));
+        }
+        return child;
+    }
+
+    boolean branched() {
+        return branch;
+    }
+
+    Occupancy occupancy() {
+        return occupancy;
+    }
+
+    // The evaluation shared nodes run under. They may be read from several branches, so must
+    // not be dropped along with whichever branch happened to start them.
+    Evaluation sharing() {
+        return sharesNodes ? parent.sharing() : this;
+    }
+
+    // the evaluation this one was forked from, if any, else this one
+    Evaluation root() {
+        return parent == null ? this : parent.root();
+    }
+
+    // Lets work register to hear when the evaluation is abandoned, e.g. by shedding. Must be
+    // called before anything is started in it.
+    void allowAbandoning() {
+        if (onAbandoned == null)
+        {
+            onAbandoned = new ConcurrentLinkedQueue<>();
+        }
+    }
+
+    boolean abandonable() {
+        return onAbandoned != null;
+    }
+
+    void abandon(final Exception reason) {
+        abandoned = reason;
+        runAbandonHooks();
+    }
+
+    // e.g. to interrupt work already running when a branch is abandoned; runs straight away
+    // if it already has been
+    void onAbandoned(final Runnable hook) {
+        final ConcurrentLinkedQueue<Runnable> hooks = onAbandoned;
+        if (hooks == null)
+        {
+            return;
+        }
+        hooks.add(hook);
+        if (abandoned != null)
+        {
+            runAbandonHooks();
+        }
+    }
+
+    private void runAbandonHooks() {
+        final ConcurrentLinkedQueue<Runnable> hooks = onAbandoned;
+        if (hooks == null)
+        {
+            return;
+        }
+        Runnable hook;
+        while ((hook = hooks.poll()) != null)
+        {
+            hook.run();
+        }
+    }
+
+    // whether stages not yet started should fail rather than run
+    boolean dropped() {
+        // forks and branches share their parent's deadline, so only the outermost checks the clock
+        return abandoned != null || (parent == null ? deadline.expired() : parent.dropped());
+    }
+
+    Exception dropReason() {
+        final Exception reason = abandoned;
+        if (reason != null)
+        {
+            return reason;
+        }
+        return parent == null ? deadline.exceeded() : parent.dropReason();
+    }
+
+    // Starts the node at most once per evaluation. Lookups never block; a race to start the
+    // same node is settled with a single putIfAbsent, and the loser waits on the winner's result.
+    @SuppressWarnings("unchecked")
+    <V> CompletableFuture<V> shared(final Object node, final Supplier<CompletableFuture<V>> start) {
+        final ConcurrentHashMap<Object, CompletableFuture<?>> started = sharedNodes();
+        final CompletableFuture<V> existing = (CompletableFuture<V>) started.get(node);
+        if (existing != null)
+        {
+            return existing;
+        }
+
+        final CompletableFuture<V> value = (CompletableFuture<V>) boundTo(node);
+        if (value != null)
+        {
+            return value;
+        }
+
+        final CompletableFuture<V> promise = new CompletableFuture<>();
+        final CompletableFuture<V> raced = (CompletableFuture<V>) started.putIfAbsent(node, promise);
+        if (raced != null)
+        {
+            return raced;
+        }
+        final CompletableFuture<V> running;
+        try {
+            running = start.get();
+        } catch (RuntimeException | Error e) {
+            // or everyone else waiting on the node would wait forever
+            promise.completeExceptionally(e);
+            return promise;
+        }
+        if (trace != null)
+        {
+            trace.alias(promise, running);
+        }
+        running.whenComplete((r, e) -> {
+            if (e == null)
+            {
+                promise.complete(r);
+            }
+            else
+            {
+                promise.completeExceptionally(e);
+            }
+        });
+        return promise;
+    }
+
+    // as if the node had already been started, with the given result, here and in every fork
+    void bind(final Object node, final CompletableFuture<?> result) {
+        boundValues().put(node, result);
+    }
+
+    // the value bound to the node here or in any evaluation this is part of, if there is one
+    CompletableFuture<?> boundTo(final Object node) {
+        for (Evaluation evaluation = this; evaluation != null; evaluation = evaluation.parent) {
+            final ConcurrentHashMap<Object, CompletableFuture<?>> values = evaluation.bound;
+            final CompletableFuture<?> value = values == null ? null : values.get(node);
+            if (value != null)
+            {
+                return value;
+            }
+        }
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private ConcurrentHashMap<Object, CompletableFuture<?>> boundValues() {
+        final Evaluation owner = sharing();
+        final ConcurrentHashMap<Object, CompletableFuture<?>> existing = owner.bound;
+        if (existing != null)
+        {
+            return existing;
+        }
+        BOUND.compareAndSet(owner, null, new ConcurrentHashMap<>());
+        return owner.bound;
+    }
+
+    @SuppressWarnings("unchecked")
+    private ConcurrentHashMap<Object, CompletableFuture<?>> sharedNodes() {
+        if (sharesNodes)
+        {
+            return parent.sharedNodes();
+        }
+        final ConcurrentHashMap<Object, CompletableFuture<?>> existing = shared;
+        if (existing != null)
+        {
+            return existing;
+        }
+        SHARED.compareAndSet(this, null, new ConcurrentHashMap<>());
+        return shared;
+    }
+}
@@ -0,0 +1,125 @@
+package net.digihippo;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// The thread pools behind an AsynchronousExecutor: one for map/join stages,
+// one for suppliers, and a small scheduler that only ever runs timeouts.
+final class ExecutionBackend {
+    private final ExecutorService stages;
+    private final ExecutorService suppliers;
+    private final ScheduledExecutorService timer;
+    private final FairDispatcher dispatcher;
+
+    ExecutionBackend(ExecutorService stages, ExecutorService suppliers, ScheduledExecutorService timer) {
+        this(stages, suppliers, timer, null);
+    }
+
+    private ExecutionBackend(
+            ExecutorService stages,
+            ExecutorService suppliers,
+            ScheduledExecutorService timer,
+            FairDispatcher dispatcher) {
+        this.stages = stages;
+        this.suppliers = suppliers;
+        this.timer = timer;
+        this.dispatcher = dispatcher;
+    }
+
+    static ExecutionBackend fixed(final int threads) {
+        final ExecutorService pool = Executors.newFixedThreadPool(threads, named("dagger-worker"));
+        return new ExecutionBackend(pool, pool, newTimer());
+    }
+
+    static ExecutionBackend workStealing() {
+        return workStealing(Runtime.getRuntime().availableProcessors());
+    }
+
+    static ExecutionBackend workStealing(final int parallelism) {
+        final ExecutorService pool = forkJoin(parallelism);
+        return new ExecutionBackend(pool, pool, newTimer());
+    }
+
+    // CPU bound stages on a work stealing pool, blocking suppliers on a thread per task
+    static ExecutionBackend workStealingWithThreadPerSupplier() {
+        return new ExecutionBackend(
+                forkJoin(Runtime.getRuntime().availableProcessors()),
+                threadPerTask("dagger-supply"),
+                newTimer());
+    }
+
+    // One pool shared by stages and suppliers, its workers handed out fairly between traffic
+    // classes rather than in arrival order.
+    static ExecutionBackend fair(final int threads) {
+        final ExecutorService pool = Executors.newFixedThreadPool(threads, named("dagger-worker"));
+        return new ExecutionBackend(pool, pool, newTimer(), new FairDispatcher(pool, threads));
+    }
+
+    java.util.concurrent.Executor stages(final TrafficClass trafficClass) {
+        return dispatcher == null ? stages : dispatcher.queue(trafficClass);
+    }
+
+    java.util.concurrent.Executor suppliers(final TrafficClass trafficClass) {
+        return dispatcher == null ? suppliers : dispatcher.queue(trafficClass);
+    }
+
+    // null unless this backend dispatches fairly
+    FairDispatcher dispatcher() {
+        return dispatcher;
+    }
+
+    ScheduledExecutorService timer() {
+        return timer;
+    }
+
+    void shutdown() {
+        stages.shutdown();
+        suppliers.shutdown();
+        timer.shutdown();
+    }
+
+    private static ExecutorService forkJoin(final int parallelism) {
+        final AtomicInteger count = new AtomicInteger();
+        return new ForkJoinPool(
+                parallelism,
+                pool -> {
+                    final ForkJoinWorkerThread thread =
+                            ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                    thread.setName("dagger-stage-" + count.incrementAndGet());
+                    return thread;
+                },
+                null,
+                true);
+    }
+
+    static ScheduledExecutorService newTimer() {
+        final ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, named("dagger-timer"));
+        timer.setRemoveOnCancelPolicy(true);
+        return timer;
+    }
+
+    // Virtual threads where the running JDK has them, otherwise an unbounded cached pool.
+    static ExecutorService threadPerTask(final String prefix) {
+        try {
+            final MethodHandle factory = MethodHandles.publicLookup().findStatic(
+                    Executors.class,
+                    "newVirtualThreadPerTaskExecutor",
+                    MethodType.methodType(ExecutorService.class));
+            return (ExecutorService) factory.invoke();
+        } catch (Throwable noVirtualThreads) {
+            return Executors.newCachedThreadPool(named(prefix));
+        }
+    }
+
+    private static ThreadFactory named(final String prefix) {
+        final AtomicInteger count = new AtomicInteger();
+        return r -> {
+            final Thread thread = new Thread(r, prefix + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -1,20 +1,68 @@
 package net.digihippo;
 
 import java.time.Duration;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
 import java.util.function.BiFunction;
 import java.util.function.Function;
 import java.util.function.Supplier;
 
 interface Executor {
-    <S, T> CompletableFuture<Result<T>> map(CompletableFuture<Result<S>> futureS, Function<S, T> f);
+    // Every stage is labelled with the description of the node it belongs to.
+    <S, T> CompletableFuture<Result<T>> map(
+            String description,
+            CompletableFuture<Result<S>> futureS,
+            Function<S, T> f,
+            Evaluation evaluation);
 
-    <T> CompletableFuture<Result<T>> supplyAsync(Supplier<T> supplier);
+    // A map declared cheap enough to run on whichever thread completes its input.
+    // Executors that never hop between threads need not tell the difference.
+    default <S, T> CompletableFuture<Result<T>> mapInline(
+            String description,
+            CompletableFuture<Result<S>> futureS,
+            Function<S, T> f,
+            Evaluation evaluation) {
+        return map(description, futureS, f, evaluation);
+    }
 
-    <T> CompletableFuture<Result<T>> supplyAsync(Supplier<T> supplier, Duration timeout);
+    <T> CompletableFuture<Result<T>> supplyAsync(String description, Supplier<T> supplier, Evaluation evaluation);
 
     <T, S1, S2> CompletableFuture<Result<T>> mapTwo(
+            String description,
             CompletableFuture<Result<S1>> resultOne,
             CompletableFuture<Result<S2>> resultTwo,
-            BiFunction<S1, S2, T> bif);
+            BiFunction<S1, S2, T> bif,
+            Evaluation evaluation);
+
+    <T, S> CompletableFuture<Result<T>> mapMany(
+            String description,
+            List<CompletableFuture<Result<S>>> results,
+            Function<List<S>, T> f,
+            Evaluation evaluation);
+
+    // The evaluation one input of a join runs in. Executors that fail joins fast give each input
+    // a branch of its own, to abandon should another input fail; otherwise they share the join's.
+    default Evaluation branch(Evaluation evaluation) {
+        return evaluation;
+    }
+
+    void execute(Runnable task);
+
+    // as execute, but queued and served as part of the given class, where the executor tells
+    // classes apart
+    default void execute(Runnable task, TrafficClass trafficClass) {
+        execute(task);
+    }
+
+    // runs the task once the delay has passed, or straight away where the executor cannot wait
+    Future<?> schedule(Runnable task, Duration delay);
+
+    default Future<?> schedule(Runnable task, Duration delay, TrafficClass trafficClass) {
+        return schedule(task, delay);
+    }
+
+    // Runs a graph as the root of an evaluation, completing it with a TimeoutException
+    // failure if the evaluation's deadline passes first.
+    <T> CompletableFuture<Result<T>> evaluate(Evaluation evaluation, Supplier<CompletableFuture<Result<T>>> graph);
 }
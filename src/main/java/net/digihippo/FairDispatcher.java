@@ -0,0 +1,188 @@
+package net.digihippo;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+// Sits in front of a pool and hands it at most one task per worker. Everything else waits in
+// a queue per traffic class, and free workers are given to classes by stride scheduling: each
+// class advances by 1/weight per task, and the class furthest behind goes next. A class that
+// has been idle rejoins at the current pass, so it cannot bank credit while it has no work.
+final class FairDispatcher {
+    private static final long STRIDE = 1L << 20;
+
+    private final ExecutorService pool;
+    // by name, so that a name always means one queue, with one weight
+    private final ConcurrentHashMap<String, ClassQueue> queues = new ConcurrentHashMap<>();
+    private final List<ClassQueue> active = new ArrayList<>();
+    private int idleWorkers;
+    private long pass;
+
+    FairDispatcher(ExecutorService pool, int workers) {
+        this.pool = pool;
+        this.idleWorkers = workers;
+    }
+
+    java.util.concurrent.Executor queue(final TrafficClass trafficClass) {
+        final ClassQueue queue = queues.computeIfAbsent(trafficClass.name(), name -> new ClassQueue(trafficClass));
+        if (!queue.trafficClass.equals(trafficClass))
+        {
+            throw new IllegalArgumentException(
+                    "Traffic class " + trafficClass + " clashes with " + queue.trafficClass + " of the same name");
+        }
+        return queue;
+    }
+
+    // per class queue depth, tasks dispatched and time spent queued, sorted by class name
+    Map<String, Snapshot> snapshot() {
+        final Map<String, Snapshot> result = new TreeMap<>();
+        for (ClassQueue queue : queues.values()) {
+            result.put(queue.trafficClass.name(), queue.snapshot());
+        }
+        return result;
+    }
+
+    private void submitted(final ClassQueue queue, final Runnable task) {
+        final Runnable next;
+        synchronized (this) {
+            if (queue.tasks.isEmpty())
+            {
+                queue.pass = Math.max(queue.pass, pass);
+                active.add(queue);
+            }
+            queue.tasks.add(new Queued(task));
+            next = takeNext();
+        }
+        dispatch(next);
+    }
+
+    private void finished() {
+        final Runnable next;
+        synchronized (this) {
+            idleWorkers++;
+            next = takeNext();
+        }
+        dispatch(next);
+    }
+
+    // under the lock: claims a worker and picks its task, or returns null if either is missing
+    private Runnable takeNext() {
+        if (idleWorkers == 0 || active.isEmpty())
+        {
+            return null;
+        }
+        ClassQueue next = active.get(0);
+        for (int i = 1; i < active.size(); i++) {
+            final ClassQueue candidate = active.get(i);
+            if (candidate.pass < next.pass)
+            {
+                next = candidate;
+            }
+        }
+        final Queued queued = next.tasks.poll();
+        pass = next.pass;
+        next.pass += STRIDE / next.trafficClass.weight();
+        if (next.tasks.isEmpty())
+        {
+            active.remove(next);
+        }
+        idleWorkers--;
+        next.dispatched.increment();
+        next.waiting.record(System.nanoTime() - queued.enqueuedAt);
+        return queued.task;
+    }
+
+    private void dispatch(final Runnable task) {
+        if (task == null)
+        {
+            return;
+        }
+        try {
+            pool.execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    finished();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // work still queued when the pool is shut down is dropped, as the pool's own queue would be
+            if (!pool.isShutdown())
+            {
+                throw e;
+            }
+        }
+    }
+
+    static final class Snapshot {
+        private final int depth;
+        private final long dispatched;
+        private final LatencyHistogram.Snapshot waiting;
+
+        private Snapshot(int depth, long dispatched, LatencyHistogram.Snapshot waiting) {
+            this.depth = depth;
+            this.dispatched = dispatched;
+            this.waiting = waiting;
+        }
+
+        int depth() {
+            return depth;
+        }
+
+        long dispatched() {
+            return dispatched;
+        }
+
+        // nanoseconds between a task arriving and a worker being given to it
+        LatencyHistogram.Snapshot waiting() {
+            return waiting;
+        }
+
+        @Override
+        public String toString() {
+            return "depth=" + depth +
+                    ", dispatched=" + dispatched +
+                    ", waiting p99=" + waiting.valueAtPercentile(99) + "ns";
+        }
+    }
+
+    private final class ClassQueue implements java.util.concurrent.Executor {
+        private final TrafficClass trafficClass;
+        private final ArrayDeque<Queued> tasks = new ArrayDeque<>();
+        private final LongAdder dispatched = new LongAdder();
+        private final LatencyHistogram waiting = new LatencyHistogram();
+        private long pass;
+
+        ClassQueue(TrafficClass trafficClass) {
+            this.trafficClass = trafficClass;
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            submitted(this, task);
+        }
+
+        Snapshot snapshot() {
+            final int depth;
+            synchronized (FairDispatcher.this) {
+                depth = tasks.size();
+            }
+            return new Snapshot(depth, dispatched.sum(), waiting.snapshot());
+        }
+    }
+
+    private static final class Queued {
+        private final Runnable task;
+        private final long enqueuedAt = System.nanoTime();
+
+        private Queued(Runnable task) {
+            this.task = task;
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package net.digihippo;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+
+final class Futures {
+    // only for futures that are already complete
+    static <T> List<T> joinAll(final List<CompletableFuture<T>> futures) {
+        final List<T> values = new ArrayList<>(futures.size());
+        for (CompletableFuture<T> future : futures) {
+            values.add(future.join());
+        }
+        return values;
+    }
+
+    // the failure a future already holds, or null if it has succeeded or not yet completed
+    static <S, T> Result<T> failedAlready(final CompletableFuture<Result<S>> future) {
+        if (!future.isDone() || future.isCompletedExceptionally())
+        {
+            return null;
+        }
+        return future.join().failureOrNull();
+    }
+
+    // what a future failed with, as something a Result can hold
+    static Exception asException(final Throwable t) {
+        final Throwable cause = t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+        return cause instanceof Exception ? (Exception) cause : new ExecutionException(cause);
+    }
+
+    private Futures() {}
+}
@@ -0,0 +1,34 @@
+package net.digihippo;
+
+// Decides whether a guarded source may run, and hears how each permitted run ended.
+interface Guard {
+    // a pass for this one run, which either lets it in or refuses it
+    Pass enter();
+
+    // One run's way past the guard, so that what the run reports back is told apart from
+    // whatever other runs, let in earlier or later, report.
+    interface Pass {
+        // null to go ahead, otherwise the failure to fail fast with
+        default Exception refusal() {
+            return null;
+        }
+
+        // called once for a run let in; the result is null if the source never produced one
+        default void exit(Result<?> result) {
+        }
+
+        // Called once for a run let in, after exit, when every supplier the run started has
+        // returned too. A supplier that ignored its timeout may still be blocked after exit.
+        default void released() {
+        }
+
+        static Pass refused(final Exception refusal) {
+            return new Pass() {
+                @Override
+                public Exception refusal() {
+                    return refusal;
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package net.digihippo;
+
+import java.util.concurrent.CompletableFuture;
+
+import static net.digihippo.Result.failure;
+
+class GuardedSource<T> implements OneSource<T> {
+    private final OneSource<T> oneSource;
+    private final Guard guard;
+
+    GuardedSource(OneSource<T> oneSource, Guard guard) {
+        this.oneSource = oneSource;
+        this.guard = guard;
+    }
+
+    @Override
+    public CompletableFuture<Result<T>> asyncExec(Executor executor, Evaluation evaluation) {
+        final Guard.Pass pass = guard.enter();
+        final Exception refused = pass.refusal();
+        if (refused != null)
+        {
+            return CompletableFuture.completedFuture(failure(refused));
+        }
+        final Occupancy occupancy = new Occupancy(evaluation.occupancy(), pass::released);
+        final CompletableFuture<Result<T>> result;
+        try {
+            result = oneSource.asyncExec(executor, evaluation.occupiedBy(occupancy));
+        } catch (RuntimeException e) {
+            pass.exit(null);
+            occupancy.exit();
+            throw e;
+        }
+        result.whenComplete((r, e) -> {
+            pass.exit(r);
+            occupancy.exit();
+        });
+        return result;
+    }
+}
@@ -0,0 +1,81 @@
+package net.digihippo;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.LongAdder;
+
+// When a hedged supplier should start its duplicate: after a fixed delay, or once the first
+// attempt has taken longer than a given percentile of recent successful attempts. One hedge
+// may be shared by every evaluation of a source, and learns from all of them.
+final class Hedge {
+    // how many samples are needed before the learned delay replaces the initial one
+    private static final int MIN_SAMPLES = 64;
+
+    private final long initialDelayNanos;
+    private final double percentile;
+    private final LatencyHistogram latencies;
+    private final LongAdder samples = new LongAdder();
+    private final LongAdder fired = new LongAdder();
+    private final LongAdder won = new LongAdder();
+    private volatile long delayNanos;
+
+    private Hedge(long initialDelayNanos, double percentile, LatencyHistogram latencies) {
+        this.initialDelayNanos = initialDelayNanos;
+        this.percentile = percentile;
+        this.latencies = latencies;
+        this.delayNanos = initialDelayNanos;
+    }
+
+    static Hedge after(final Duration delay) {
+        return new Hedge(delay.toNanos(), 0, null);
+    }
+
+    // e.g. atPercentile(95, ofMillis(50)) hedges the slowest 5%, using 50ms until it has learned
+    static Hedge atPercentile(final double percentile, final Duration initialDelay) {
+        return new Hedge(initialDelay.toNanos(), percentile, new LatencyHistogram());
+    }
+
+    Duration delay() {
+        return Duration.ofNanos(delayNanos);
+    }
+
+    // duplicates started
+    long fired() {
+        return fired.sum();
+    }
+
+    // duplicates that succeeded before the attempt they were hedging
+    long won() {
+        return won.sum();
+    }
+
+    void succeeded(final long nanos) {
+        if (latencies == null)
+        {
+            return;
+        }
+        latencies.record(nanos);
+        samples.increment();
+        // the snapshot copies the histogram, so the delay is only refreshed now and then
+        final long count = samples.sum();
+        if (count >= MIN_SAMPLES && count % MIN_SAMPLES == 0)
+        {
+            delayNanos = latencies.snapshot().valueAtPercentile(percentile);
+        }
+    }
+
+    void hedgeFired() {
+        fired.increment();
+    }
+
+    void hedgeWon() {
+        won.increment();
+    }
+
+    @Override
+    public String toString() {
+        final String learned = latencies == null
+                ? ""
+                : " (p" + percentile + ", initially " + Duration.ofNanos(initialDelayNanos) + ")";
+        return "fired=" + fired() + ", won=" + won() + ", delay=" + delay() + learned;
+    }
+}
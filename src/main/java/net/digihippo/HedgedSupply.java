@@ -0,0 +1,105 @@
+package net.digihippo;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+// A supplier that, if its first attempt is slow, starts a duplicate and takes whichever
+// succeeds first, cancelling the other. A failure only counts once nothing else is running.
+class HedgedSupply<T> implements OneSource<T> {
+    private final String description;
+    private final Supplier<T> supplier;
+    private final Hedge hedge;
+
+    HedgedSupply(String description, Supplier<T> supplier, Hedge hedge) {
+        this.description = description;
+        this.supplier = supplier;
+        this.hedge = hedge;
+    }
+
+    @Override
+    public CompletableFuture<Result<T>> asyncExec(Executor executor, Evaluation evaluation) {
+        final Race race = new Race();
+        race.primary = attempt(race, false, executor, evaluation);
+        final Future<?> timer = executor.schedule(() -> {
+            if (race.hedge())
+            {
+                hedge.hedgeFired();
+                race.backup(attempt(race, true, executor, evaluation));
+            }
+        }, hedge.delay());
+        race.result.whenComplete((r, e) -> timer.cancel(false));
+        return race.result;
+    }
+
+    private CompletableFuture<Result<T>> attempt(
+            final Race race,
+            final boolean backup,
+            final Executor executor,
+            final Evaluation evaluation) {
+        final long startedAt = System.nanoTime();
+        final CompletableFuture<Result<T>> attempt = executor.supplyAsync(description, supplier, evaluation);
+        attempt.whenComplete((r, e) -> {
+            if (r != null)
+            {
+                race.finished(r, backup, System.nanoTime() - startedAt);
+            }
+        });
+        return attempt;
+    }
+
+    private final class Race {
+        private final CompletableFuture<Result<T>> result = new CompletableFuture<>();
+        private CompletableFuture<Result<T>> primary;
+        private CompletableFuture<Result<T>> backup;
+        private int running = 1;
+
+        synchronized boolean hedge() {
+            if (result.isDone())
+            {
+                return false;
+            }
+            running++;
+            return true;
+        }
+
+        void backup(final CompletableFuture<Result<T>> attempt) {
+            synchronized (this) {
+                backup = attempt;
+            }
+            // the primary may have won while the backup was starting
+            if (result.isDone())
+            {
+                attempt.cancel(true);
+            }
+        }
+
+        void finished(final Result<T> r, final boolean isBackup, final long nanos) {
+            final boolean success = r.fold(e -> false, s -> true);
+            if (success)
+            {
+                hedge.succeeded(nanos);
+            }
+            final CompletableFuture<Result<T>> loser;
+            synchronized (this) {
+                running--;
+                if (result.isDone() || (!success && running > 0))
+                {
+                    return;
+                }
+                loser = isBackup ? primary : backup;
+            }
+            if (result.complete(r))
+            {
+                if (isBackup && success)
+                {
+                    hedge.hedgeWon();
+                }
+                if (loser != null)
+                {
+                    loser.cancel(true);
+                }
+            }
+        }
+    }
+}
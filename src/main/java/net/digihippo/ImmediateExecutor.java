@@ -1,37 +1,115 @@
 package net.digihippo;
 
 import java.time.Duration;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
 import java.util.function.BiFunction;
 import java.util.function.Function;
 import java.util.function.Supplier;
 
-import static net.digihippo.SaferFunctions.safer;
-import static net.digihippo.Suppliers.wrapExceptions;
+import static net.digihippo.Futures.joinAll;
+import static net.digihippo.Result.all;
+import static net.digihippo.Result.failure;
+import static net.digihippo.SaferFunctions.applySafely;
+import static net.digihippo.Suppliers.getSafely;
 
 class ImmediateExecutor implements Executor {
-    @Override
-    public <S, T> CompletableFuture<Result<T>> map(CompletableFuture<Result<S>> futureS, Function<S, T> f) {
-        return futureS.thenApply(r -> r.flatMap(safer(f)));
+    private final Instrumentation instrumentation;
+
+    ImmediateExecutor() {
+        this(Instrumentation.NONE);
+    }
+
+    // stages never wait in a queue here, so only execution time is recorded
+    ImmediateExecutor(Instrumentation instrumentation) {
+        this.instrumentation = instrumentation;
     }
 
     @Override
-    public <T> CompletableFuture<Result<T>> supplyAsync(Supplier<T> supplier) {
-        return CompletableFuture.completedFuture(wrapExceptions(supplier).get());
+    public <S, T> CompletableFuture<Result<T>> map(
+            String description,
+            CompletableFuture<Result<S>> futureS,
+            Function<S, T> f,
+            Evaluation evaluation) {
+        if (!instrumentation.enabled())
+        {
+            return futureS.thenApply(r -> applySafely(r, f, evaluation));
+        }
+        return futureS.thenApply(r -> timed(description, () -> applySafely(r, f, evaluation)));
     }
 
     @Override
-    public <T> CompletableFuture<Result<T>> supplyAsync(Supplier<T> supplier, Duration timeout) {
-        return CompletableFuture.completedFuture(wrapExceptions(supplier).get());
+    public <T> CompletableFuture<Result<T>> supplyAsync(
+            String description,
+            Supplier<T> supplier,
+            Evaluation evaluation) {
+        if (!instrumentation.enabled())
+        {
+            return CompletableFuture.completedFuture(getSafely(supplier, evaluation));
+        }
+        return CompletableFuture.completedFuture(
+                timed(description, () -> getSafely(supplier, evaluation)));
     }
 
     @Override
     public <T, S1, S2> CompletableFuture<Result<T>> mapTwo(
+            String description,
             CompletableFuture<Result<S1>> resultOne,
             CompletableFuture<Result<S2>> resultTwo,
-            BiFunction<S1, S2, T> bif) {
+            BiFunction<S1, S2, T> bif,
+            Evaluation evaluation) {
+        if (!instrumentation.enabled())
+        {
+            return resultOne.thenCombine(
+                    resultTwo,
+                    (r1, r2) -> applySafely(r1, r2, bif, evaluation));
+        }
         return resultOne.thenCombine(
                 resultTwo,
-                (r1, r2) -> r1.flatMap(s1 -> r2.flatMap(s2 -> safer(bif).apply(s1, s2))));
+                (r1, r2) -> timed(description, () -> applySafely(r1, r2, bif, evaluation)));
+    }
+
+    @Override
+    public <T, S> CompletableFuture<Result<T>> mapMany(
+            String description,
+            List<CompletableFuture<Result<S>>> results,
+            Function<List<S>, T> f,
+            Evaluation evaluation) {
+        final CompletableFuture<Void> inputs = CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[0]));
+        if (!instrumentation.enabled())
+        {
+            return inputs.thenApply(ignored -> applySafely(all(joinAll(results)), f, evaluation));
+        }
+        return inputs.thenApply(ignored -> timed(
+                        description,
+                        () -> applySafely(all(joinAll(results)), f, evaluation)));
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        task.run();
+    }
+
+    @Override
+    public Future<?> schedule(Runnable task, Duration delay) {
+        task.run();
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public <T> CompletableFuture<Result<T>> evaluate(
+            Evaluation evaluation,
+            Supplier<CompletableFuture<Result<T>>> graph) {
+        final Deadline deadline = evaluation.deadline();
+        if (deadline.expired())
+        {
+            return CompletableFuture.completedFuture(failure(deadline.exceeded()));
+        }
+        return graph.get();
+    }
+
+    private <T> Result<T> timed(final String description, final Supplier<Result<T>> stage) {
+        return new Probe(instrumentation, description, null).time(stage);
     }
 }
@@ -0,0 +1,31 @@
+package net.digihippo;
+
+import java.util.concurrent.CompletableFuture;
+
+import static net.digihippo.Result.failure;
+
+// A placeholder for a value supplied with each evaluation, so one graph can be built once and
+// run over many inputs. The value is bound to the evaluation as though this node had already run.
+class Input<I> implements OneSource<I> {
+    @Override
+    @SuppressWarnings("unchecked")
+    public CompletableFuture<Result<I>> asyncExec(Executor executor, Evaluation evaluation) {
+        // bound, as it almost always is, without making the evaluation a map of shared nodes
+        final CompletableFuture<?> value = evaluation.boundTo(this);
+        if (value != null)
+        {
+            return (CompletableFuture<Result<I>>) value;
+        }
+        return evaluation.shared(this, () -> CompletableFuture.completedFuture(failure(unbound())));
+    }
+
+    // one slot, however many nodes read it
+    @Override
+    public int addTo(Plan.Builder plan) {
+        return plan.shared(this, () -> plan.opaque(this));
+    }
+
+    private static Exception unbound() {
+        return new IllegalStateException("No value bound to input");
+    }
+}
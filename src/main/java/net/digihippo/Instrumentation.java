@@ -0,0 +1,32 @@
+package net.digihippo;
+
+import java.util.concurrent.TimeoutException;
+
+// Told about every stage an executor runs, labelled with the description of its node.
+// Executors check enabled() once per stage, and skip all timing when it is false.
+interface Instrumentation {
+    Instrumentation NONE = new Instrumentation() {
+        @Override
+        public boolean enabled() {
+            return false;
+        }
+
+        @Override
+        public void record(String description, long queuedNanos, long executingNanos, Outcome outcome) {
+        }
+    };
+
+    boolean enabled();
+
+    void record(String description, long queuedNanos, long executingNanos, Outcome outcome);
+
+    enum Outcome {
+        SUCCESS,
+        FAILURE,
+        TIMEOUT;
+
+        static Outcome of(final Result<?> result) {
+            return result.fold(e -> e instanceof TimeoutException ? TIMEOUT : FAILURE, s -> SUCCESS);
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package net.digihippo;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+import static net.digihippo.Futures.failedAlready;
+
+class JoinManySource<S, T> implements OneSource<T> {
+    private final List<OneSource<S>> sources;
+    private final String description;
+    private final Function<List<S>, T> f;
+
+    JoinManySource(List<OneSource<S>> sources, String description, Function<List<S>, T> f) {
+        this.sources = sources;
+        this.description = description;
+        this.f = f;
+    }
+
+    @Override
+    public CompletableFuture<Result<T>> asyncExec(Executor executor, Evaluation evaluation) {
+        final List<CompletableFuture<Result<S>>> results = new ArrayList<>(sources.size());
+        for (OneSource<S> source : sources) {
+            final CompletableFuture<Result<S>> result = source.asyncExec(executor, evaluation);
+            // no point starting the rest once one has already failed
+            final Result<T> failed = failedAlready(result);
+            if (failed != null)
+            {
+                return CompletableFuture.completedFuture(failed);
+            }
+            results.add(result);
+        }
+        return executor.mapMany(description, results, f, evaluation);
+    }
+
+    @Override
+    public int addTo(Plan.Builder plan) {
+        final int[] inputs = new int[sources.size()];
+        for (int i = 0; i < inputs.length; i++) {
+            inputs[i] = sources.get(i).addTo(plan);
+        }
+        return plan.joinMany(description, inputs, f);
+    }
+}
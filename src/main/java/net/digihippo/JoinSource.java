@@ -1,32 +1,100 @@
 package net.digihippo;
 
-import java.time.Duration;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
 import java.util.function.BiFunction;
-import java.util.function.Function;
+
+import static net.digihippo.Futures.failedAlready;
 
 class JoinSource<S1, S2, T> implements OneSource<T> {
 
     private final OneSource<S1> sourceOne;
     private final OneSource<S2> sourceTwo;
+    private final String description;
     private final BiFunction<S1, S2, T> bif;
+    private final boolean inOrder;
+
+    JoinSource(OneSource<S1> sourceOne, OneSource<S2> sourceTwo, String description, BiFunction<S1, S2, T> bif) {
+        this(sourceOne, sourceTwo, description, bif, false);
+    }
 
-    JoinSource(OneSource<S1> sourceOne, OneSource<S2> sourceTwo, BiFunction<S1, S2, T> bif) {
+    // in order, the second source is only started once the first has succeeded
+    JoinSource(
+            OneSource<S1> sourceOne,
+            OneSource<S2> sourceTwo,
+            String description,
+            BiFunction<S1, S2, T> bif,
+            boolean inOrder) {
         this.sourceOne = sourceOne;
         this.sourceTwo = sourceTwo;
+        this.description = description;
         this.bif = bif;
+        this.inOrder = inOrder;
     }
 
+    // Where the executor fails fast, each input is evaluated as a branch of its own, so that as
+    // soon as one fails the other can be abandoned: its stages not yet run are dropped and its
+    // suppliers interrupted.
     @Override
-    public CompletableFuture<Result<T>> asyncExec(Executor executor) {
-        final CompletableFuture<Result<S1>> resultOne = sourceOne.asyncExec(executor);
-        final CompletableFuture<Result<S2>> resultTwo = sourceTwo.asyncExec(executor);
-
-        return executor.mapTwo(resultOne, resultTwo, bif);
+    public CompletableFuture<Result<T>> asyncExec(Executor executor, Evaluation evaluation) {
+        if (inOrder)
+        {
+            return inOrder(executor, evaluation);
+        }
+        final Evaluation branchOne = executor.branch(evaluation);
+        final Evaluation branchTwo = executor.branch(evaluation);
+        final CompletableFuture<Result<S1>> resultOne = sourceOne.asyncExec(executor, branchOne);
+        // e.g. under an immediate executor, or once the evaluation has been dropped
+        final Result<T> failed = failedAlready(resultOne);
+        if (failed != null)
+        {
+            return CompletableFuture.completedFuture(failed);
+        }
+        final CompletableFuture<Result<S2>> resultTwo = sourceTwo.asyncExec(executor, branchTwo);
+        if (branchOne != evaluation)
+        {
+            abandonOnFailure(resultOne, branchTwo);
+            abandonOnFailure(resultTwo, branchOne);
+        }
+        return executor.mapTwo(description, resultOne, resultTwo, bif, evaluation);
     }
 
     @Override
-    public CompletableFuture<Result<T>> asyncExec(Executor executor, Duration timeout) {
-        return null;
+    public int addTo(Plan.Builder plan) {
+        if (inOrder)
+        {
+            // a plan starts every step it needs up front, so cannot hold the second branch back
+            return plan.opaque(this);
+        }
+        return plan.join(description, sourceOne.addTo(plan), sourceTwo.addTo(plan), bif);
+    }
+
+    private CompletableFuture<Result<T>> inOrder(final Executor executor, final Evaluation evaluation) {
+        final CompletableFuture<Result<S1>> resultOne = sourceOne.asyncExec(executor, evaluation);
+        final Result<T> failed = failedAlready(resultOne);
+        if (failed != null)
+        {
+            return CompletableFuture.completedFuture(failed);
+        }
+        return resultOne.thenCompose(r -> {
+            final Result<T> failedLater = r.failureOrNull();
+            if (failedLater != null)
+            {
+                return CompletableFuture.completedFuture(failedLater);
+            }
+            final CompletableFuture<Result<S2>> resultTwo = sourceTwo.asyncExec(executor, evaluation);
+            return executor.mapTwo(description, resultOne, resultTwo, bif, evaluation);
+        });
+    }
+
+    private static void abandonOnFailure(
+            final CompletableFuture<? extends Result<?>> result,
+            final Evaluation sibling) {
+        result.thenAccept(r -> {
+            if (r.failureOrNull() != null)
+            {
+                sibling.abandon(new CancellationException("abandoned after a sibling branch failed"));
+            }
+        });
     }
 }
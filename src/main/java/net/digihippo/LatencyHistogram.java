@@ -0,0 +1,88 @@
+package net.digihippo;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+
+// A fixed size, lock free, log-linear histogram of nanosecond latencies: every power of
+// two is split into eight buckets, so any recorded value is reported to within 12.5%.
+final class LatencyHistogram {
+    private static final int SUB_BUCKETS = 8;
+    private static final int SUB_BUCKET_BITS = 3;
+
+    private final AtomicLongArray counts = new AtomicLongArray(64 * SUB_BUCKETS);
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    void record(final long nanos) {
+        final long value = Math.max(0, nanos);
+        counts.incrementAndGet(index(value));
+        max.accumulate(value);
+    }
+
+    Snapshot snapshot() {
+        final long[] copy = new long[counts.length()];
+        for (int i = 0; i < copy.length; i++) {
+            copy[i] = counts.get(i);
+        }
+        return new Snapshot(copy, max.get());
+    }
+
+    static int index(final long value) {
+        if (value < SUB_BUCKETS)
+        {
+            return (int) value;
+        }
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        final int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    // the largest value that lands in the given bucket
+    static long upperBound(final int index) {
+        if (index < SUB_BUCKETS)
+        {
+            return index;
+        }
+        final int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        final long width = 1L << (exponent - SUB_BUCKET_BITS);
+        final long lower = (SUB_BUCKETS + index % SUB_BUCKETS) * width;
+        return lower + width - 1;
+    }
+
+    static final class Snapshot {
+        private final long[] counts;
+        private final long max;
+        private final long count;
+
+        private Snapshot(long[] counts, long max) {
+            this.counts = counts;
+            this.max = max;
+            long total = 0;
+            for (long c : counts) {
+                total += c;
+            }
+            this.count = total;
+        }
+
+        long count() {
+            return count;
+        }
+
+        long max() {
+            return max;
+        }
+
+        // e.g. 99.0 for the p99; zero when nothing has been recorded
+        long valueAtPercentile(final double percentile) {
+            final long rank = Math.max(1, (long) Math.ceil(count * percentile / 100.0));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank)
+                {
+                    return Math.min(upperBound(i), max);
+                }
+            }
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package net.digihippo;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+class ManySource<T> {
+    private final List<OneSource<T>> sources;
+
+    ManySource(List<OneSource<T>> sources) {
+        this.sources = sources;
+    }
+
+    static <T> ManySource<T> of(final List<? extends OneSource<T>> sources)
+    {
+        return new ManySource<>(new ArrayList<>(sources));
+    }
+
+    <U> ManySource<U> map(final Function<T, U> f)
+    {
+        final List<OneSource<U>> mapped = new ArrayList<>(sources.size());
+        for (OneSource<T> source : sources) {
+            mapped.add(source.map(f));
+        }
+        return new ManySource<>(mapped);
+    }
+
+    void consume(final Consumer<Result<List<T>>> c)
+    {
+        join(Function.identity()).consume(c);
+    }
+
+    void asyncConsume(final Executor executor, final Consumer<Result<List<T>>> c)
+    {
+        join(Function.identity()).asyncConsume(executor, c);
+    }
+
+    // all branches are combined in one step, rather than a tree of pairwise joins
+    <U> OneSource<U> join(final Function<List<T>, U> f)
+    {
+        return join("join-many", f);
+    }
+
+    <U> OneSource<U> join(final String description, final Function<List<T>, U> f)
+    {
+        return new JoinManySource<>(sources, description, f);
+    }
+}
@@ -0,0 +1,106 @@
+package net.digihippo;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+// Per node counts and latency histograms, keyed by node description.
+// Nodes that share a description share their metrics.
+final class NodeMetrics implements Instrumentation {
+    private final ConcurrentHashMap<String, Stats> stats = new ConcurrentHashMap<>();
+
+    @Override
+    public boolean enabled() {
+        return true;
+    }
+
+    @Override
+    public void record(String description, long queuedNanos, long executingNanos, Outcome outcome) {
+        final Stats node = stats.computeIfAbsent(description, d -> new Stats());
+        node.queued.record(queuedNanos);
+        node.executing.record(executingNanos);
+        switch (outcome) {
+            case SUCCESS:
+                node.successes.increment();
+                break;
+            case FAILURE:
+                node.failures.increment();
+                break;
+            case TIMEOUT:
+                node.timeouts.increment();
+                break;
+        }
+    }
+
+    // a point in time copy, sorted by description
+    Map<String, Snapshot> snapshot() {
+        final Map<String, Snapshot> result = new TreeMap<>();
+        stats.forEach((description, node) -> result.put(description, node.snapshot()));
+        return result;
+    }
+
+    static final class Snapshot {
+        private final long successes;
+        private final long failures;
+        private final long timeouts;
+        private final LatencyHistogram.Snapshot queued;
+        private final LatencyHistogram.Snapshot executing;
+
+        private Snapshot(
+                long successes,
+                long failures,
+                long timeouts,
+                LatencyHistogram.Snapshot queued,
+                LatencyHistogram.Snapshot executing) {
+            this.successes = successes;
+            this.failures = failures;
+            this.timeouts = timeouts;
+            this.queued = queued;
+            this.executing = executing;
+        }
+
+        long successes() {
+            return successes;
+        }
+
+        long failures() {
+            return failures;
+        }
+
+        long timeouts() {
+            return timeouts;
+        }
+
+        // nanoseconds between a stage being handed to a pool and it starting
+        LatencyHistogram.Snapshot queued() {
+            return queued;
+        }
+
+        LatencyHistogram.Snapshot executing() {
+            return executing;
+        }
+
+        @Override
+        public String toString() {
+            return "successes=" + successes +
+                    ", failures=" + failures +
+                    ", timeouts=" + timeouts +
+                    ", queued p99=" + queued.valueAtPercentile(99) + "ns" +
+                    ", executing p99=" + executing.valueAtPercentile(99) + "ns";
+        }
+    }
+
+    private static final class Stats {
+        private final LongAdder successes = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+        private final LongAdder timeouts = new LongAdder();
+        private final LatencyHistogram queued = new LatencyHistogram();
+        private final LatencyHistogram executing = new LatencyHistogram();
+
+        Snapshot snapshot() {
+            return new Snapshot(
+                    successes.sum(), failures.sum(), timeouts.sum(), queued.snapshot(), executing.snapshot());
+        }
+    }
+}
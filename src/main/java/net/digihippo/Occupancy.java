@@ -0,0 +1,87 @@
+package net.digihippo;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static net.digihippo.Result.failure;
+import static net.digihippo.Suppliers.getSafely;
+
+// What is still running on behalf of one guarded run: the run itself, until its result is in,
+// and each supplier task it started, until that task's supplier has returned. A supplier still
+// blocked after the run has timed out keeps its place, so the guard only hears the run is over,
+// e.g. for a bulkhead to hand back its permit, once the thread it was protecting is free again.
+final class Occupancy {
+    private final AtomicInteger held = new AtomicInteger(1);
+    private final Occupancy outer;
+    private final Runnable onVacated;
+
+    // a guarded run within another holds a place in the outer one until it is vacated
+    Occupancy(Occupancy outer, Runnable onVacated) {
+        this.outer = outer;
+        this.onVacated = onVacated;
+        if (outer != null)
+        {
+            outer.held.incrementAndGet();
+        }
+    }
+
+    // a place for one supplier task of whichever guarded run the evaluation is part of, if any
+    static Place enter(final Evaluation evaluation) {
+        final Occupancy occupancy = evaluation.occupancy();
+        if (occupancy == null)
+        {
+            return null;
+        }
+        occupancy.held.incrementAndGet();
+        return occupancy.new Place();
+    }
+
+    // calls the supplier from the given place, leaving it as soon as the supplier returns
+    static <T> Result<T> call(final Place place, final Supplier<T> supplier, final Evaluation evaluation) {
+        if (place == null)
+        {
+            return getSafely(supplier, evaluation);
+        }
+        if (!place.claimed.compareAndSet(false, true))
+        {
+            return failure(new CancellationException("cancelled before it started"));
+        }
+        try {
+            return getSafely(supplier, evaluation);
+        } finally {
+            place.occupancy().exit();
+        }
+    }
+
+    // the run's own place, left once its result is in
+    void exit() {
+        if (held.decrementAndGet() == 0)
+        {
+            onVacated.run();
+            if (outer != null)
+            {
+                outer.exit();
+            }
+        }
+    }
+
+    // One supplier task's place. It is left by the task, once its supplier returns, or else by
+    // whatever finds the task will never call it: cancelled, rejected, or run after the fact.
+    final class Place {
+        private final AtomicBoolean claimed = new AtomicBoolean();
+
+        // leaves the place, unless the task has already claimed it to call its supplier
+        void abandon() {
+            if (claimed.compareAndSet(false, true))
+            {
+                exit();
+            }
+        }
+
+        private Occupancy occupancy() {
+            return Occupancy.this;
+        }
+    }
+}
@@ -1,27 +1,64 @@
 package net.digihippo;
 
-import java.time.Duration;
 import java.util.concurrent.CompletableFuture;
 import java.util.function.Function;
 
 class OneMapSource<S, T> implements OneSource<T> {
     private final OneSource<S> oneSource;
+    private final String description;
     private final Function<S, T> f;
+    // what the executor runs, learning its cost as it goes
+    private final StageCosts.Stage<S, T> stage;
+    private final boolean fusable;
+    private final boolean inline;
 
-    OneMapSource(OneSource<S> oneSource, Function<S, T> f) {
+    OneMapSource(OneSource<S> oneSource, String description, Function<S, T> f) {
+        this(oneSource, description, f, true);
+    }
+
+    OneMapSource(OneSource<S> oneSource, String description, Function<S, T> f, boolean fusable) {
+        this(oneSource, description, f, fusable, false);
+    }
+
+    OneMapSource(OneSource<S> oneSource, String description, Function<S, T> f, boolean fusable, boolean inline) {
         this.oneSource = oneSource;
+        this.description = description;
         this.f = f;
+        this.stage = new StageCosts.Stage<>(f);
+        this.fusable = fusable;
+        this.inline = inline;
     }
 
+    // consecutive maps run as one composed function, in a single task; an inline map is never
+    // fused with a dispatched one, which would either dispatch it or run the other inline
     @Override
-    public CompletableFuture<Result<T>> asyncExec(Executor executor) {
-        final CompletableFuture<Result<S>> futureS = oneSource.asyncExec(executor);
-        return executor.map(futureS, f);
+    public <U> OneSource<U> map(String gDescription, Function<T, U> g) {
+        if (fusable && !inline)
+        {
+            return new OneMapSource<>(oneSource, fused(description, gDescription), f.andThen(g));
+        }
+        return new OneMapSource<>(this, gDescription, g);
     }
 
     @Override
-    public CompletableFuture<Result<T>> asyncExec(Executor executor, Duration timeout) {
-        final CompletableFuture<Result<S>> source = oneSource.asyncExec(executor, timeout);
-        return executor.map(source, f);
+    public CompletableFuture<Result<T>> asyncExec(Executor executor, Evaluation evaluation) {
+        final CompletableFuture<Result<S>> futureS = oneSource.asyncExec(executor, evaluation);
+        return inline
+                ? executor.mapInline(description, futureS, stage, evaluation)
+                : executor.map(description, futureS, stage, evaluation);
+    }
+
+    @Override
+    public int addTo(Plan.Builder plan) {
+        final int input = oneSource.addTo(plan);
+        return inline ? plan.mapInline(description, input, stage) : plan.map(description, input, stage);
+    }
+
+    StageCosts.Stage<S, T> stage() {
+        return stage;
+    }
+
+    private static String fused(final String first, final String second) {
+        return first.equals(second) ? first : first + "+" + second;
     }
 }
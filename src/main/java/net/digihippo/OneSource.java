@@ -1,6 +1,8 @@
 package net.digihippo;
 
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.function.Consumer;
 import java.util.function.Function;
@@ -11,7 +13,27 @@ interface OneSource<T> {
     }
 
     default <U> OneSource<U> map(Function<T, U> f) {
-        return new OneMapSource<>(this, f);
+        return map("map", f);
+    }
+
+    // the description labels this stage in metrics and traces
+    default <U> OneSource<U> map(String description, Function<T, U> f) {
+        return new OneMapSource<>(this, description, f);
+    }
+
+    // a map that is never fused with its neighbours, so always gets its own task
+    default <U> OneSource<U> mapSeparately(Function<T, U> f) {
+        return new OneMapSource<>(this, "map", f, false);
+    }
+
+    // for functions too cheap to be worth a hop to a pool thread: runs on the thread that
+    // completed this source, or on the caller's if it already has
+    default <U> OneSource<U> mapInline(Function<T, U> f) {
+        return mapInline("map", f);
+    }
+
+    default <U> OneSource<U> mapInline(String description, Function<T, U> f) {
+        return new OneMapSource<>(this, description, f, false, true);
     }
 
     default <U1, U2> TwoSource<U1, U2> mapTwo(Function<T, U1> f1, Function<T, U2> f2) {
@@ -19,12 +41,93 @@ interface OneSource<T> {
         return new TwoSource<>(shared.map(f1), shared.map(f2));
     }
 
+    // reuses this source's result from earlier evaluations with the same key
+    default <K> OneSource<T> cached(SourceCache<K, T> cache, K key) {
+        return new CachedSource<>(this, cache, key);
+    }
+
+    // retries this source after retryable failures, backing off in between
+    default OneSource<T> retrying(Retry retry) {
+        return new RetryingSource<>(this, retry);
+    }
+
+    // e.g. a Bulkhead or a CircuitBreaker, shared by every evaluation of this source
+    default OneSource<T> guardedBy(Guard guard) {
+        return new GuardedSource<>(this, guard);
+    }
+
+    // evaluations share calls to the batcher's function with other concurrent evaluations
+    default <U> OneSource<U> mapBatched(Batcher<T, U> batcher) {
+        return new BatchMapSource<>(this, batcher);
+    }
+
+    // one shared evaluation of this source, fanned out to every function
+    default <U> ManySource<U> mapMany(List<? extends Function<T, U>> fs) {
+        final OneSource<T> shared = new SharedSupply<>(this);
+        final List<OneSource<U>> branches = new ArrayList<>(fs.size());
+        for (Function<T, U> f : fs) {
+            branches.add(shared.map(f));
+        }
+        return new ManySource<>(branches);
+    }
+
+    // flattens this graph into a plan that is built once and run on every evaluation
+    default CompiledSource<T> compile() {
+        final Plan.Builder plan = new Plan.Builder();
+        final int output = addTo(plan);
+        return new CompiledSource<>(plan.build(output), output);
+    }
+
     default void asyncConsume(Executor executor, Consumer<Result<T>> c) {
         asyncExec(executor).thenAccept(c);
     }
 
-    CompletableFuture<Result<T>> asyncExec(Executor executor);
+    default CompletableFuture<Result<T>> asyncExec(Executor executor) {
+        final Evaluation evaluation = Evaluation.unbounded();
+        return executor.evaluate(evaluation, () -> asyncExec(executor, evaluation));
+    }
+
+    // the timeout bounds the whole evaluation, not just its suppliers
+    default CompletableFuture<Result<T>> asyncExec(Executor executor, Duration timeout) {
+        final Evaluation evaluation = Evaluation.within(timeout);
+        return executor.evaluate(evaluation, () -> asyncExec(executor, evaluation));
+    }
+
+    // every stage of the evaluation is queued, and served, as part of the given class
+    default CompletableFuture<Result<T>> asyncExec(Executor executor, Duration timeout, TrafficClass trafficClass) {
+        final Evaluation evaluation = new Evaluation(Deadline.after(timeout), null, trafficClass);
+        return executor.evaluate(evaluation, () -> asyncExec(executor, evaluation));
+    }
+
+    // one evaluation with the given value bound to the input
+    default <I> CompletableFuture<Result<T>> asyncExec(Executor executor, Input<I> input, I value) {
+        final Evaluation evaluation = Evaluation.unbounded();
+        evaluation.bind(input, CompletableFuture.completedFuture(Result.success(value)));
+        return executor.evaluate(evaluation, () -> asyncExec(executor, evaluation));
+    }
+
+    // A result per value, in order, from one evaluation of the whole batch, started a chunk of
+    // values at a time. The timeout bounds the whole batch.
+    default <I> CompletableFuture<List<Result<T>>> asyncExecEach(
+            Executor executor,
+            Input<I> input,
+            List<I> values,
+            int chunkSize,
+            Duration timeout) {
+        return BatchedEvaluation.evaluate(this, input, values, executor, Deadline.after(timeout), chunkSize);
+    }
+
+    // records every stage of this one evaluation into the trace
+    default CompletableFuture<Result<T>> asyncExec(Executor executor, Trace trace) {
+        final Evaluation evaluation = new Evaluation(Deadline.NONE, trace);
+        final Executor tracing = new TracingExecutor(executor, trace);
+        return tracing.evaluate(evaluation, () -> asyncExec(tracing, evaluation));
+    }
 
-    CompletableFuture<Result<T>> asyncExec(Executor executor, Duration timeout);
+    CompletableFuture<Result<T>> asyncExec(Executor executor, Evaluation evaluation);
 
+    // adds this node, and whatever it reads, to a plan being compiled; returns its slot
+    default int addTo(Plan.Builder plan) {
+        return plan.opaque(this);
+    }
 }
@@ -0,0 +1,15 @@
+package net.digihippo;
+
+// The failure given to work turned away to protect the system: an evaluation refused or shed
+// by admission control, or a call stopped by a full bulkhead or an open circuit breaker.
+public class OverloadedException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    OverloadedException() {
+        this("overloaded, try again later");
+    }
+
+    OverloadedException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,297 @@
+package net.digihippo;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
+
+// A graph flattened into topologically ordered steps, each of which writes one slot. Shared
+// nodes are resolved to a single slot when the plan is built, so running a plan needs no
+// per-evaluation bookkeeping beyond one slot array.
+final class Plan {
+    private final Step[] steps;
+    private final int[] depths;
+    private final int[] outputs;
+    // for each output's slot, the steps it reads in the order they must start
+    private final int[][] demands;
+
+    private Plan(Step[] steps, int[] depths, int[] outputs) {
+        this.steps = steps;
+        this.depths = depths;
+        this.outputs = outputs;
+        this.demands = new int[steps.length][];
+        for (int output : outputs) {
+            demands[output] = demandedBy(steps, output);
+        }
+    }
+
+    int nodeCount() {
+        return steps.length;
+    }
+
+    // the longest chain of steps from any input to an output
+    int depth() {
+        int depth = 0;
+        for (int output : outputs) {
+            depth = Math.max(depth, depths[output]);
+        }
+        return depth;
+    }
+
+    // descriptions of the steps along that chain, input first
+    List<String> criticalPath() {
+        final List<String> path = new ArrayList<>();
+        int step = -1;
+        for (int output : outputs) {
+            if (step == -1 || depths[output] > depths[step])
+            {
+                step = output;
+            }
+        }
+        while (step != -1)
+        {
+            path.add(steps[step].description);
+            int deepest = -1;
+            for (int input : steps[step].inputs) {
+                if (deepest == -1 || depths[input] > depths[deepest])
+                {
+                    deepest = input;
+                }
+            }
+            step = deepest;
+        }
+        Collections.reverse(path);
+        return path;
+    }
+
+    int outputCount() {
+        return outputs.length;
+    }
+
+    CompletableFuture<?>[] slots() {
+        return new CompletableFuture<?>[steps.length];
+    }
+
+    // Runs the steps an output reads in slots of its own, for plans whose outputs are never
+    // shared, so need no lock to start each step at most once.
+    CompletableFuture<?> run(final Executor executor, final Evaluation evaluation, final int output) {
+        final CompletableFuture<?>[] slots = slots();
+        for (int step : demands[output]) {
+            slots[step] = steps[step].start(executor, evaluation, slots);
+        }
+        return slots[output];
+    }
+
+    // Starts whichever of the steps an output reads have not been started already, and nothing
+    // else: a step that only other outputs read waits until one of them is asked for. Steps are
+    // claimed under the slots' lock, with a placeholder for their output, but started outside
+    // it, as starting one may run user code, e.g. under an immediate executor.
+    CompletableFuture<?> start(
+            final Executor executor,
+            final Evaluation evaluation,
+            final CompletableFuture<?>[] slots,
+            final int output) {
+        final int[] demanded = demands[output];
+        final int[] claimed = new int[demanded.length];
+        int count = 0;
+        final CompletableFuture<?> result;
+        synchronized (slots) {
+            for (int step : demanded) {
+                if (slots[step] == null)
+                {
+                    slots[step] = new CompletableFuture<>();
+                    claimed[count++] = step;
+                }
+            }
+            result = slots[output];
+        }
+        // in order, so that every step's inputs are in their slots before it starts
+        for (int i = 0; i < count; i++) {
+            final int step = claimed[i];
+            try {
+                pipe(steps[step].start(executor, evaluation, slots), slots[step]);
+            } catch (RuntimeException | Error e) {
+                // or whatever reads the steps claimed here would wait forever
+                for (int unstarted = i; unstarted < count; unstarted++) {
+                    slots[claimed[unstarted]].completeExceptionally(e);
+                }
+                throw e;
+            }
+        }
+        return result;
+    }
+
+    private static int[] demandedBy(final Step[] steps, final int output) {
+        // every input has a lower slot than the step reading it
+        final boolean[] demanded = new boolean[output + 1];
+        demanded[output] = true;
+        int count = 0;
+        for (int i = output; i >= 0; i--) {
+            if (demanded[i])
+            {
+                count++;
+                for (int input : steps[i].inputs) {
+                    demanded[input] = true;
+                }
+            }
+        }
+        final int[] order = new int[count];
+        int next = 0;
+        for (int i = 0; i <= output; i++) {
+            if (demanded[i])
+            {
+                order[next++] = i;
+            }
+        }
+        return order;
+    }
+
+    static final class Builder {
+        private final List<Step> steps = new ArrayList<>();
+        private final List<Integer> depths = new ArrayList<>();
+        private final Map<Object, Integer> shared = new IdentityHashMap<>();
+
+        <T> int supply(final String description, final Supplier<T> supplier) {
+            return add(new Step(description) {
+                @Override
+                CompletableFuture<?> start(Executor executor, Evaluation evaluation, CompletableFuture<?>[] slots) {
+                    return executor.supplyAsync(description, supplier, evaluation);
+                }
+            });
+        }
+
+        <S, T> int map(final String description, final int input, final Function<S, T> f) {
+            return add(new Step(description, input) {
+                @Override
+                CompletableFuture<?> start(Executor executor, Evaluation evaluation, CompletableFuture<?>[] slots) {
+                    return executor.map(description, Plan.<S>slot(slots, input), f, evaluation);
+                }
+            });
+        }
+
+        <S, T> int mapInline(final String description, final int input, final Function<S, T> f) {
+            return add(new Step(description, input) {
+                @Override
+                CompletableFuture<?> start(Executor executor, Evaluation evaluation, CompletableFuture<?>[] slots) {
+                    return executor.mapInline(description, Plan.<S>slot(slots, input), f, evaluation);
+                }
+            });
+        }
+
+        <S1, S2, T> int join(
+                final String description,
+                final int one,
+                final int two,
+                final BiFunction<S1, S2, T> bif) {
+            return add(new Step(description, one, two) {
+                @Override
+                CompletableFuture<?> start(Executor executor, Evaluation evaluation, CompletableFuture<?>[] slots) {
+                    return executor.mapTwo(
+                            description, Plan.<S1>slot(slots, one), Plan.<S2>slot(slots, two), bif, evaluation);
+                }
+            });
+        }
+
+        <S, T> int joinMany(final String description, final int[] inputs, final Function<List<S>, T> f) {
+            return add(new Step(description, inputs) {
+                @Override
+                CompletableFuture<?> start(Executor executor, Evaluation evaluation, CompletableFuture<?>[] slots) {
+                    final List<CompletableFuture<Result<S>>> results = new ArrayList<>(inputs.length);
+                    for (int input : inputs) {
+                        results.add(Plan.<S>slot(slots, input));
+                    }
+                    return executor.mapMany(description, results, f, evaluation);
+                }
+            });
+        }
+
+        <S, T> int batch(final int input, final Batcher<S, T> batcher) {
+            return add(new Step("batch", input) {
+                @Override
+                CompletableFuture<?> start(Executor executor, Evaluation evaluation, CompletableFuture<?>[] slots) {
+                    return Plan.<S>slot(slots, input).thenCompose(r -> r.fold(
+                            e -> CompletableFuture.completedFuture(Result.<T>failure(e)),
+                            s -> batcher.submit(s, executor, evaluation)));
+                }
+            });
+        }
+
+        // a node the plan cannot see inside, evaluated by walking it as usual
+        int opaque(final OneSource<?> source) {
+            return add(new Step(source.getClass().getSimpleName()) {
+                @Override
+                CompletableFuture<?> start(Executor executor, Evaluation evaluation, CompletableFuture<?>[] slots) {
+                    return source.asyncExec(executor, evaluation);
+                }
+            });
+        }
+
+        // however many nodes read it, a shared node is added to the plan once
+        int shared(final Object node, final IntSupplier upstream) {
+            final Integer existing = shared.get(node);
+            if (existing != null)
+            {
+                return existing;
+            }
+            final int slot = upstream.getAsInt();
+            shared.put(node, slot);
+            return slot;
+        }
+
+        Plan build(final int... outputs) {
+            final int[] depthArray = new int[depths.size()];
+            for (int i = 0; i < depthArray.length; i++) {
+                depthArray[i] = depths.get(i);
+            }
+            return new Plan(steps.toArray(new Step[0]), depthArray, outputs);
+        }
+
+        private int add(final Step step) {
+            int depth = 0;
+            for (int input : step.inputs) {
+                depth = Math.max(depth, depths.get(input));
+            }
+            steps.add(step);
+            depths.add(depth + 1);
+            return steps.size() - 1;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void pipe(final CompletableFuture<?> from, final CompletableFuture<?> placeholder) {
+        final CompletableFuture<Object> to = (CompletableFuture<Object>) placeholder;
+        from.whenComplete((r, e) -> {
+            if (e == null)
+            {
+                to.complete(r);
+            }
+            else
+            {
+                to.completeExceptionally(e);
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> CompletableFuture<Result<T>> slot(final CompletableFuture<?>[] slots, final int index) {
+        return (CompletableFuture<Result<T>>) slots[index];
+    }
+
+    private abstract static class Step {
+        private final String description;
+        private final int[] inputs;
+
+        Step(String description, int... inputs) {
+            this.description = description;
+            this.inputs = inputs;
+        }
+
+        abstract CompletableFuture<?> start(Executor executor, Evaluation evaluation, CompletableFuture<?>[] slots);
+    }
+}
@@ -0,0 +1,36 @@
+package net.digihippo;
+
+import java.util.function.Supplier;
+
+// Times a single stage: when it was handed to a pool, and how long its body took.
+// Only created when instrumentation is enabled.
+final class Probe implements java.util.concurrent.Executor {
+    private final Instrumentation instrumentation;
+    private final String description;
+    private final java.util.concurrent.Executor pool;
+    private volatile long enqueuedAt;
+
+    Probe(Instrumentation instrumentation, String description, java.util.concurrent.Executor pool) {
+        this.instrumentation = instrumentation;
+        this.description = description;
+        this.pool = pool;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        enqueuedAt = System.nanoTime();
+        pool.execute(task);
+    }
+
+    <T> Result<T> time(final Supplier<Result<T>> stage) {
+        final long startedAt = System.nanoTime();
+        final Result<T> result = stage.get();
+        record(startedAt, Instrumentation.Outcome.of(result));
+        return result;
+    }
+
+    void record(final long startedAt, final Instrumentation.Outcome outcome) {
+        final long queued = enqueuedAt == 0 ? 0 : startedAt - enqueuedAt;
+        instrumentation.record(description, queued, System.nanoTime() - startedAt, outcome);
+    }
+}
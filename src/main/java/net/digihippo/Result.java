@@ -1,5 +1,8 @@
 package net.digihippo;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiFunction;
 import java.util.function.Consumer;
 import java.util.function.Function;
 
@@ -19,8 +22,39 @@ public abstract class Result<S> {
 
     public abstract void consumeOrThrow(final Consumer<S> consumer) throws Exception;
 
-    <T> Result<T> flatMap(Function<S, Result<T>> f) {
-        return fold(Result::failure, f);
+    // both of these hand back a failure as it is, rather than allocating a new one per stage
+    abstract <T> Result<T> flatMap(Function<S, Result<T>> f);
+
+    // any exception thrown by f becomes a failure
+    abstract <T> Result<T> map(Function<S, T> f);
+
+    // null for a success; a failure is handed back as it is
+    abstract <T> Result<T> failureOrNull();
+
+    static <S1, S2, T> Result<T> both(final Result<S1> r1, final Result<S2> r2, final BiFunction<S1, S2, T> b) {
+        if (r1 instanceof Failure) {
+            return ((Failure<S1>) r1).cast();
+        }
+        if (r2 instanceof Failure) {
+            return ((Failure<S2>) r2).cast();
+        }
+        try {
+            return new Success<>(b.apply(((Success<S1>) r1).s, ((Success<S2>) r2).s));
+        } catch (Exception e) {
+            return new Failure<>(e);
+        }
+    }
+
+    // the successes in order, or the first failure
+    static <S> Result<List<S>> all(final List<Result<S>> results) {
+        final List<S> values = new ArrayList<>(results.size());
+        for (Result<S> result : results) {
+            if (result instanceof Failure) {
+                return ((Failure<S>) result).cast();
+            }
+            values.add(((Success<S>) result).s);
+        }
+        return success(values);
     }
 
     private static final class Success<S> extends Result<S> {
@@ -44,6 +78,25 @@ public abstract class Result<S> {
         public void consumeOrThrow(Consumer<S> consumer) {
             consumer.accept(s);
         }
+
+        @Override
+        <T> Result<T> flatMap(Function<S, Result<T>> f) {
+            return f.apply(s);
+        }
+
+        @Override
+        <T> Result<T> map(Function<S, T> f) {
+            try {
+                return new Success<>(f.apply(s));
+            } catch (Exception e) {
+                return new Failure<>(e);
+            }
+        }
+
+        @Override
+        <T> Result<T> failureOrNull() {
+            return null;
+        }
     }
 
     private static final class Failure<S> extends Result<S> {
@@ -67,5 +120,26 @@ public abstract class Result<S> {
         public void consumeOrThrow(Consumer<S> consumer) throws Exception {
             throw e;
         }
+
+        @Override
+        <T> Result<T> flatMap(Function<S, Result<T>> f) {
+            return cast();
+        }
+
+        @Override
+        <T> Result<T> map(Function<S, T> f) {
+            return cast();
+        }
+
+        @Override
+        <T> Result<T> failureOrNull() {
+            return cast();
+        }
+
+        // a failure carries no S, so it is safe to reuse as a failure of any type
+        @SuppressWarnings("unchecked")
+        private <T> Result<T> cast() {
+            return (Result<T>) this;
+        }
     }
 }
@@ -0,0 +1,95 @@
+package net.digihippo;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+// How a RetryingSource retries: how many attempts, how long to back off between them, which
+// failures are worth another go, and the budget that every retry has to be paid from.
+final class Retry {
+    private final int maxAttempts;
+    private final long baseDelayNanos;
+    private final long maxDelayNanos;
+    private final RetryBudget budget;
+    private final Predicate<Exception> retryable;
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder refused = new LongAdder();
+
+    private Retry(
+            int maxAttempts,
+            long baseDelayNanos,
+            long maxDelayNanos,
+            RetryBudget budget,
+            Predicate<Exception> retryable) {
+        this.maxAttempts = maxAttempts;
+        this.baseDelayNanos = baseDelayNanos;
+        this.maxDelayNanos = maxDelayNanos;
+        this.budget = budget;
+        this.retryable = retryable;
+    }
+
+    // Doubles the delay after every attempt, up to maxDelay; each delay is jittered by up to half.
+    // Overload failures are never retried, as retrying them only adds to the overload.
+    static Retry exponential(
+            final int maxAttempts,
+            final Duration baseDelay,
+            final Duration maxDelay,
+            final RetryBudget budget) {
+        return new Retry(
+                maxAttempts,
+                baseDelay.toNanos(),
+                maxDelay.toNanos(),
+                budget,
+                e -> !(e instanceof OverloadedException));
+    }
+
+    Retry retryingOnly(final Predicate<Exception> retryable) {
+        return new Retry(maxAttempts, baseDelayNanos, maxDelayNanos, budget, retryable);
+    }
+
+    long retries() {
+        return retries.sum();
+    }
+
+    // failures that could have been retried, but for the budget or the deadline
+    long refused() {
+        return refused.sum();
+    }
+
+    void started() {
+        budget.deposit();
+    }
+
+    // how long to wait before the given attempt, or null if there should not be one
+    Duration delayBefore(final int attempt, final Exception failure, final Deadline deadline) {
+        if (attempt > maxAttempts || !retryable.test(failure))
+        {
+            return null;
+        }
+        final long delay = jittered(backoff(attempt));
+        final boolean tooLate = deadline.bounded() && deadline.remainingNanos() <= delay;
+        if (deadline.expired() || tooLate || !budget.tryWithdraw())
+        {
+            refused.increment();
+            return null;
+        }
+        retries.increment();
+        return Duration.ofNanos(delay);
+    }
+
+    private long backoff(final int attempt) {
+        final int doublings = attempt - 2;
+        // capped before the shift could overflow
+        if (doublings >= Long.numberOfLeadingZeros(baseDelayNanos) - 1)
+        {
+            return maxDelayNanos;
+        }
+        return Math.min(maxDelayNanos, baseDelayNanos << doublings);
+    }
+
+    private static long jittered(final long delay) {
+        final long half = delay / 2;
+        return half + (half > 0 ? ThreadLocalRandom.current().nextLong(half + 1) : 0);
+    }
+}
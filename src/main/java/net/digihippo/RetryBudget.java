@@ -0,0 +1,42 @@
+package net.digihippo;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// Limits retries to a fraction of the evaluations that asked for them, across all evaluations
+// sharing the budget, so that a struggling dependency does not see its load multiplied.
+// A token bucket: every evaluation adds `ratio` of a token, every retry takes a whole one.
+final class RetryBudget {
+    private static final long TOKEN = 1000;
+
+    private final long perEvaluation;
+    private final long capacity;
+    private final AtomicLong tokens;
+
+    // e.g. new RetryBudget(0.1, 10): one retry per ten evaluations, with ten to spare at any time
+    RetryBudget(double ratio, int reserve) {
+        this.perEvaluation = (long) (ratio * TOKEN);
+        this.capacity = reserve * TOKEN;
+        this.tokens = new AtomicLong(capacity);
+    }
+
+    void deposit() {
+        tokens.accumulateAndGet(perEvaluation, (current, add) -> Math.min(capacity, current + add));
+    }
+
+    boolean tryWithdraw() {
+        long current = tokens.get();
+        while (current >= TOKEN)
+        {
+            if (tokens.compareAndSet(current, current - TOKEN))
+            {
+                return true;
+            }
+            current = tokens.get();
+        }
+        return false;
+    }
+
+    double available() {
+        return tokens.get() / (double) TOKEN;
+    }
+}
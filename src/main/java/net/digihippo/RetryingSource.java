@@ -0,0 +1,64 @@
+package net.digihippo;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+
+import static net.digihippo.Result.failure;
+
+// Runs its source again after a retryable failure. Backoffs wait on the executor's timer, not on
+// a pool thread, and each attempt gets an evaluation of its own so that shared nodes inside the
+// source run again rather than handing back the failure they already memoised. Inputs keep the
+// values bound to them. No attempt starts once the evaluation has been dropped, and an abandoned
+// evaluation abandons the attempt in flight along with it. An executor that cannot wait, like
+// the immediate one, runs each attempt straight after the last, with no backoff at all.
+class RetryingSource<T> implements OneSource<T> {
+    private final OneSource<T> oneSource;
+    private final Retry retry;
+
+    RetryingSource(OneSource<T> oneSource, Retry retry) {
+        this.oneSource = oneSource;
+        this.retry = retry;
+    }
+
+    @Override
+    public CompletableFuture<Result<T>> asyncExec(Executor executor, Evaluation evaluation) {
+        final CompletableFuture<Result<T>> result = new CompletableFuture<>();
+        retry.started();
+        attempt(1, executor, evaluation, result);
+        return result;
+    }
+
+    private void attempt(
+            final int attempt,
+            final Executor executor,
+            final Evaluation evaluation,
+            final CompletableFuture<Result<T>> result) {
+        if (result.isDone())
+        {
+            return;
+        }
+        if (evaluation.dropped())
+        {
+            result.complete(failure(evaluation.dropReason()));
+            return;
+        }
+        oneSource.asyncExec(executor, evaluation.fork()).whenComplete((r, e) -> {
+            if (e != null)
+            {
+                result.completeExceptionally(e);
+                return;
+            }
+            final Duration backoff = result.isDone() ? null : r.fold(
+                    failure -> retry.delayBefore(attempt + 1, failure, evaluation.deadline()),
+                    s -> null);
+            if (backoff == null)
+            {
+                result.complete(r);
+            }
+            else
+            {
+                executor.schedule(() -> attempt(attempt + 1, executor, evaluation, result), backoff);
+            }
+        });
+    }
+}
@@ -3,16 +3,32 @@ package net.digihippo;
 import java.util.function.BiFunction;
 import java.util.function.Function;
 
-import static net.digihippo.Suppliers.wrapExceptions;
+import static net.digihippo.Result.failure;
 
 final class SaferFunctions {
-    static <S, T> Function<S, Result<T>> safer(final Function<S, T> f) {
-        return s -> wrapExceptions(() -> f.apply(s)).get();
+    // The stage bodies used by executors. On success the only allocation is the new Result;
+    // upstream failures pass through untouched, and a stage that starts after its evaluation
+    // has been dropped, by its deadline, by load shedding or by a failed sibling, fails rather
+    // than running.
+    static <S, T> Result<T> applySafely(final Result<S> r, final Function<S, T> f, final Evaluation evaluation) {
+        if (evaluation.dropped())
+        {
+            return r.flatMap(s -> failure(evaluation.dropReason()));
+        }
+        return r.map(f);
     }
 
-    static <S1, S2, T> BiFunction<S1, S2, Result<T>> safer(final BiFunction<S1, S2, T> b)
+    static <S1, S2, T> Result<T> applySafely(
+            final Result<S1> r1,
+            final Result<S2> r2,
+            final BiFunction<S1, S2, T> b,
+            final Evaluation evaluation)
     {
-        return (s1, s2) -> wrapExceptions(() -> b.apply(s1, s2)).get();
+        if (evaluation.dropped())
+        {
+            return Result.both(r1, r2, (s1, s2) -> s1).flatMap(s -> failure(evaluation.dropReason()));
+        }
+        return Result.both(r1, r2, b);
     }
 
     private SaferFunctions() {}
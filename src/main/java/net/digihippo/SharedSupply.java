@@ -1,38 +1,23 @@
 package net.digihippo;
 
-import java.time.Duration;
 import java.util.concurrent.CompletableFuture;
 
+// Evaluated once per evaluation however many downstream nodes read it; holds no state of its own.
 class SharedSupply<T> implements OneSource<T> {
     private final OneSource<T> oneSource;
 
-    private CompletableFuture<Result<T>> started = null;
-
     SharedSupply(OneSource<T> oneSource) {
         this.oneSource = oneSource;
     }
 
     @Override
-    public CompletableFuture<Result<T>> asyncExec(Executor executor) {
-        synchronized (this)
-        {
-            if (started == null)
-            {
-                started = oneSource.asyncExec(executor);
-            }
-        }
-        return started;
+    public CompletableFuture<Result<T>> asyncExec(Executor executor, Evaluation evaluation) {
+        final Evaluation owner = evaluation.sharing();
+        return evaluation.shared(this, () -> oneSource.asyncExec(executor, owner));
     }
 
     @Override
-    public CompletableFuture<Result<T>> asyncExec(Executor executor, Duration timeout) {
-        synchronized (this)
-        {
-            if (started == null)
-            {
-                started = oneSource.asyncExec(executor, timeout);
-            }
-        }
-        return started;
+    public int addTo(Plan.Builder plan) {
+        return plan.shared(this, () -> oneSource.addTo(plan));
     }
 }
@@ -0,0 +1,176 @@
+package net.digihippo;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeoutException;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+// Results of expensive sources, shared across evaluations. Concurrent misses for a key
+// wait on the one load already in flight rather than starting their own. A load runs in the
+// evaluation of the caller that started it, so should it fail for that caller's own reasons,
+// e.g. its deadline passing, the callers waiting on it load afresh rather than fail with it.
+final class SourceCache<K, T> {
+    private final int maxSize;
+    private final long ttlNanos;
+    private final long failureTtlNanos;
+    private final LongSupplier nanoClock;
+
+    private final LinkedHashMap<K, Entry<T>> entries;
+    // entries still loading, which are neither evicted nor counted against maxSize
+    private int loadsInFlight = 0;
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    // a zero failureTtl means failures are never cached
+    SourceCache(int maxSize, Duration ttl, Duration failureTtl) {
+        this(maxSize, ttl, failureTtl, System::nanoTime);
+    }
+
+    SourceCache(int maxSize, Duration ttl, Duration failureTtl, LongSupplier nanoClock) {
+        this.maxSize = maxSize;
+        this.ttlNanos = ttl.toNanos();
+        this.failureTtlNanos = failureTtl.toNanos();
+        this.nanoClock = nanoClock;
+        // in access order, so the first entry is always the least recently used
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    CompletableFuture<Result<T>> get(final K key, final Supplier<CompletableFuture<Result<T>>> load) {
+        final Entry<T> loading = new Entry<>();
+        final Entry<T> inFlight;
+        synchronized (entries)
+        {
+            final Entry<T> existing = entries.get(key);
+            if (existing != null && !existing.expired(nanoClock.getAsLong()))
+            {
+                hits++;
+                if (existing.loaded)
+                {
+                    return existing.result;
+                }
+                inFlight = existing;
+            }
+            else
+            {
+                inFlight = null;
+                misses++;
+                entries.put(key, loading);
+                loadsInFlight++;
+            }
+        }
+
+        if (inFlight != null)
+        {
+            return inFlight.result.thenCompose(r -> r.fold(
+                    e -> callersOwn(e) ? get(key, load) : CompletableFuture.completedFuture(r),
+                    s -> CompletableFuture.completedFuture(r)));
+        }
+
+        final CompletableFuture<Result<T>> loaded;
+        try {
+            loaded = load.get();
+        } catch (RuntimeException | Error e) {
+            // or everyone waiting on this load would wait forever
+            loaded(key, loading, null, e);
+            throw e;
+        }
+        loaded.whenComplete((r, e) -> loaded(key, loading, r, e));
+        return loading.result;
+    }
+
+    long hits() {
+        synchronized (entries)
+        {
+            return hits;
+        }
+    }
+
+    long misses() {
+        synchronized (entries)
+        {
+            return misses;
+        }
+    }
+
+    long evictions() {
+        synchronized (entries)
+        {
+            return evictions;
+        }
+    }
+
+    int size() {
+        synchronized (entries)
+        {
+            return entries.size();
+        }
+    }
+
+    private void loaded(final K key, final Entry<T> entry, final Result<T> result, final Throwable t) {
+        final long ttl = t != null ? 0L : result.fold(e -> callersOwn(e) ? 0L : failureTtlNanos, s -> ttlNanos);
+        synchronized (entries)
+        {
+            loadsInFlight--;
+            if (ttl > 0)
+            {
+                entry.expiresAtNanos = nanoClock.getAsLong() + ttl;
+                entry.loaded = true;
+                // as just used, so that it is not the first to go now that it counts
+                entries.get(key);
+                evictLoaded();
+            }
+            else
+            {
+                entries.remove(key, entry);
+            }
+        }
+
+        if (t != null)
+        {
+            entry.result.completeExceptionally(t);
+        }
+        else
+        {
+            entry.result.complete(result);
+        }
+    }
+
+    // Under the entries lock: evicts the least recently used entries that have loaded until
+    // there are at most maxSize of them. Callers are waiting on an entry still loading, so
+    // evicting it would have the next miss start a second load.
+    private void evictLoaded() {
+        final Iterator<Entry<T>> leastRecentlyUsed = entries.values().iterator();
+        while (entries.size() - loadsInFlight > maxSize && leastRecentlyUsed.hasNext())
+        {
+            if (leastRecentlyUsed.next().loaded)
+            {
+                leastRecentlyUsed.remove();
+                evictions++;
+            }
+        }
+    }
+
+    // Failures down to the evaluation that happened to load the entry, e.g. its deadline passing,
+    // rather than to the source; the next caller should load afresh.
+    private static boolean callersOwn(final Exception e) {
+        return e instanceof TimeoutException
+                || e instanceof CancellationException
+                || e instanceof OverloadedException;
+    }
+
+    private static final class Entry<T> {
+        private final CompletableFuture<Result<T>> result = new CompletableFuture<>();
+        // both guarded by the entries lock; a load in flight never expires
+        private boolean loaded = false;
+        private long expiresAtNanos = 0L;
+
+        boolean expired(long now) {
+            return loaded && now - expiresAtNanos >= 0;
+        }
+    }
+}
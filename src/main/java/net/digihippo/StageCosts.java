@@ -0,0 +1,99 @@
+package net.digihippo;
+
+import java.time.Duration;
+import java.util.function.Function;
+
+// Learns what each map stage costs to run, so that an executor can run the cheap ones inline
+// rather than paying for a hop to a pool thread. Each map node carries its cost with it, as a
+// Stage made once, when the node is built, so unlabelled and fused maps each learn a cost of
+// their own, and finding it takes no lookup and no lock. Stages are timed wherever they run, so
+// a stage that gets more expensive goes back to being dispatched.
+final class StageCosts {
+    // runs needed before a stage is judged
+    private static final int MIN_SAMPLES = 16;
+
+    private final long cheapBelowNanos;
+
+    StageCosts(Duration cheapBelow) {
+        this.cheapBelowNanos = cheapBelow.toNanos();
+    }
+
+    // whether the stage has proved cheap enough to run inline; only Stages ever do
+    boolean cheap(final Function<?, ?> stage) {
+        if (!(stage instanceof Stage))
+        {
+            return false;
+        }
+        final Cost cost = ((Stage<?, ?>) stage).cost;
+        return cost.samples >= MIN_SAMPLES && cost.averageNanos < cheapBelowNanos;
+    }
+
+    // the moving average run time, or null if the stage has not run yet
+    Duration averageCost(final Function<?, ?> stage) {
+        if (!(stage instanceof Stage))
+        {
+            return null;
+        }
+        final Cost cost = ((Stage<?, ?>) stage).cost;
+        return cost.samples == 0 ? null : Duration.ofNanos(cost.averageNanos);
+    }
+
+    // A map node's function, along with what it has cost so far.
+    static final class Stage<S, T> implements Function<S, T> {
+        private final Function<S, T> f;
+        private final Cost cost;
+        // made once, rather than on every run
+        private final Function<S, T> timed = this::timedApply;
+
+        Stage(Function<S, T> f) {
+            this(f, new Cost());
+        }
+
+        private Stage(Function<S, T> f, Cost cost) {
+            this.f = f;
+            this.cost = cost;
+        }
+
+        @Override
+        public T apply(final S s) {
+            return f.apply(s);
+        }
+
+        // the function, recording its run time each time it runs
+        Function<S, T> timed() {
+            return timed;
+        }
+
+        // another function standing in for this stage, e.g. wrapped for tracing, whose runs
+        // count towards the same cost
+        Stage<S, T> around(final Function<S, T> g) {
+            return new Stage<>(g, cost);
+        }
+
+        private T timedApply(final S s) {
+            final long startedAt = System.nanoTime();
+            try {
+                return f.apply(s);
+            } finally {
+                cost.record(System.nanoTime() - startedAt);
+            }
+        }
+    }
+
+    // Updated without locking: concurrent runs of a stage may lose a sample, which only
+    // makes the estimate a little slower to move.
+    private static final class Cost {
+        private volatile long averageNanos;
+        // stops counting once there are enough to judge by, so it cannot overflow
+        private volatile int samples;
+
+        void record(final long nanos) {
+            final int seen = samples;
+            averageNanos = seen == 0 ? nanos : averageNanos + (nanos - averageNanos) / 8;
+            if (seen < MIN_SAMPLES)
+            {
+                samples = seen + 1;
+            }
+        }
+    }
+}
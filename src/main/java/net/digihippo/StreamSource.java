@@ -0,0 +1,72 @@
+package net.digihippo;
+
+import java.util.concurrent.Flow;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+// Many elements, all evaluated by one graph, built once, with each element bound to its input.
+class StreamSource<T> {
+    private final PerElement<?, OneSource<T>> perElement;
+
+    StreamSource(PerElement<?, OneSource<T>> perElement) {
+        this.perElement = perElement;
+    }
+
+    static <T> StreamSource<T> of(final Iterable<T> elements)
+    {
+        final Input<T> input = new Input<>();
+        return new StreamSource<>(new PerElement<>(elements, input, input));
+    }
+
+    <U> StreamSource<U> map(final Function<T, U> f)
+    {
+        return new StreamSource<>(perElement.with(perElement.graph.map(f)));
+    }
+
+    <U1, U2> TwoStreamSource<U1, U2> mapTwo(final Function<T, U1> f1, final Function<T, U2> f2)
+    {
+        return new TwoStreamSource<>(perElement.with(perElement.graph.mapTwo(f1, f2)));
+    }
+
+    void consume(final Consumer<Result<T>> c)
+    {
+        consume(perElement, c);
+    }
+
+    // Each subscriber gets its own pass over the elements. Elements are only pulled from
+    // the source once requested, and at most maxInFlight of them are evaluating at once.
+    Flow.Publisher<Result<T>> publish(final Executor executor, final int maxInFlight)
+    {
+        if (maxInFlight <= 0)
+        {
+            throw new IllegalArgumentException("maxInFlight must be positive, was " + maxInFlight);
+        }
+        return subscriber -> subscriber.onSubscribe(
+                new StreamSubscription<>(subscriber, perElement, executor, maxInFlight));
+    }
+
+    private static <E, T> void consume(final PerElement<E, OneSource<T>> perElement, final Consumer<Result<T>> c)
+    {
+        final Executor executor = new ImmediateExecutor();
+        for (E element : perElement.elements) {
+            perElement.graph.asyncExec(executor, perElement.input, element).thenAccept(c);
+        }
+    }
+
+    // The elements, the input each is bound to in turn, and the graph reading it.
+    static final class PerElement<E, G> {
+        final Iterable<E> elements;
+        final Input<E> input;
+        final G graph;
+
+        PerElement(Iterable<E> elements, Input<E> input, G graph) {
+            this.elements = elements;
+            this.input = input;
+            this.graph = graph;
+        }
+
+        <H> PerElement<E, H> with(final H graph) {
+            return new PerElement<>(elements, input, graph);
+        }
+    }
+}
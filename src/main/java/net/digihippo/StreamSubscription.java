@@ -0,0 +1,171 @@
+package net.digihippo;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Emits results in element order. Every signal to the subscriber happens inside drain,
+// which only one thread at a time is ever in.
+final class StreamSubscription<E, T> implements Flow.Subscription {
+    private final Flow.Subscriber<? super Result<T>> subscriber;
+    private final Iterator<E> elements;
+    private final Input<E> input;
+    private final OneSource<T> graph;
+    private final Executor executor;
+    private final int maxInFlight;
+
+    private final AtomicInteger wip = new AtomicInteger();
+    private final AtomicLong requested = new AtomicLong();
+    private volatile boolean cancelled = false;
+    private volatile RuntimeException invalidRequest = null;
+
+    // only touched inside drain
+    private final ArrayDeque<Evaluating<T>> inFlight = new ArrayDeque<>();
+    private long emitted = 0;
+    private boolean exhausted = false;
+    private boolean done = false;
+
+    StreamSubscription(
+            Flow.Subscriber<? super Result<T>> subscriber,
+            StreamSource.PerElement<E, OneSource<T>> perElement,
+            Executor executor,
+            int maxInFlight) {
+        this.subscriber = subscriber;
+        this.elements = perElement.elements.iterator();
+        this.input = perElement.input;
+        this.graph = perElement.graph;
+        this.executor = executor;
+        this.maxInFlight = maxInFlight;
+    }
+
+    @Override
+    public void request(long n) {
+        if (n <= 0)
+        {
+            invalidRequest = new IllegalArgumentException("Requested " + n + " elements, must be positive");
+        }
+        else
+        {
+            requested.getAndUpdate(r -> r + n < 0 ? Long.MAX_VALUE : r + n);
+        }
+        drain();
+    }
+
+    @Override
+    public void cancel() {
+        cancelled = true;
+        drain();
+    }
+
+    private void drain() {
+        if (wip.getAndIncrement() != 0)
+        {
+            return;
+        }
+        do
+        {
+            while (!done)
+            {
+                if (invalidRequest != null)
+                {
+                    fail(invalidRequest);
+                }
+                else if (cancelled)
+                {
+                    done = true;
+                    abandonInFlight(new CancellationException("stream cancelled"));
+                }
+                else if (!inFlight.isEmpty() && inFlight.peek().result.isDone())
+                {
+                    emit(inFlight.poll().result);
+                }
+                else if (canStartAnother())
+                {
+                    startNext();
+                }
+                else
+                {
+                    if (exhausted && inFlight.isEmpty())
+                    {
+                        done = true;
+                        subscriber.onComplete();
+                    }
+                    break;
+                }
+            }
+        } while (wip.decrementAndGet() != 0);
+    }
+
+    private boolean canStartAnother() {
+        return !exhausted && inFlight.size() < maxInFlight && emitted + inFlight.size() < requested.get();
+    }
+
+    private void startNext() {
+        final E element;
+        try {
+            if (!elements.hasNext())
+            {
+                exhausted = true;
+                return;
+            }
+            element = elements.next();
+        } catch (RuntimeException e) {
+            fail(e);
+            return;
+        }
+
+        final Evaluation evaluation = Evaluation.unbounded();
+        // so that cancelling the subscription can stop whatever the element is still running
+        evaluation.allowAbandoning();
+        evaluation.bind(input, CompletableFuture.completedFuture(Result.success(element)));
+        final CompletableFuture<Result<T>> result =
+                executor.evaluate(evaluation, () -> graph.asyncExec(executor, evaluation));
+        inFlight.add(new Evaluating<>(evaluation, result));
+        if (!result.isDone())
+        {
+            result.whenComplete((r, e) -> drain());
+        }
+    }
+
+    private void emit(final CompletableFuture<Result<T>> result) {
+        final Result<T> r;
+        try {
+            r = result.join();
+        } catch (RuntimeException e) {
+            fail(e);
+            return;
+        }
+        emitted++;
+        subscriber.onNext(r);
+    }
+
+    private void fail(final RuntimeException e) {
+        done = true;
+        abandonInFlight(new CancellationException("stream failed"));
+        subscriber.onError(e);
+    }
+
+    // nobody will read their results, so their stages not yet run are dropped and their
+    // suppliers interrupted, as for a join's abandoned branch
+    private void abandonInFlight(final Exception reason) {
+        Evaluating<T> evaluating;
+        while ((evaluating = inFlight.poll()) != null)
+        {
+            evaluating.evaluation.abandon(reason);
+        }
+    }
+
+    private static final class Evaluating<T> {
+        private final Evaluation evaluation;
+        private final CompletableFuture<Result<T>> result;
+
+        private Evaluating(Evaluation evaluation, CompletableFuture<Result<T>> result) {
+            this.evaluation = evaluation;
+            this.result = result;
+        }
+    }
+}
@@ -0,0 +1,451 @@
+package net.digihippo;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import static net.digihippo.Futures.asException;
+import static net.digihippo.Futures.joinAll;
+import static net.digihippo.Result.all;
+import static net.digihippo.Result.failure;
+import static net.digihippo.SaferFunctions.applySafely;
+
+// Runs every node on a thread of its own, virtual where the JDK has them, within a scope per
+// evaluation. Nodes simply block until their inputs are ready, so suppliers may block as much as
+// they like without holding up anyone else's stages. A join fails as soon as any of its inputs
+// does, cancelling the others, and an evaluation's last result is only handed back once its scope
+// has closed: every node it started has finished, or been interrupted and given up. The deadline
+// is the exception; once it passes the caller hears straight away, and the scope drains behind.
+// Without virtual threads, as on JDK 17, the default falls back to a cached pool of platform
+// threads: still one thread per running node, each with a full stack, so ten thousand blocked
+// suppliers are ten thousand OS threads. BlockingSuppliersBenchmark shows what that costs.
+final class StructuredExecutor implements Executor {
+    private final ExecutorService threads;
+    private final ScheduledExecutorService timer;
+    // one per evaluation, shared by every evaluate call made with it
+    private final Map<Evaluation, Scope> scopes = new ConcurrentHashMap<>();
+    // for stages run outside evaluate, which is never closed
+    private final Scope unscoped = new Scope(null);
+    private final LongAdder cancelledTasks = new LongAdder();
+
+    StructuredExecutor() {
+        this(ExecutionBackend.threadPerTask("dagger-node"));
+    }
+
+    // the pool must start every task it is given, rather than queueing some behind others
+    StructuredExecutor(ExecutorService threads) {
+        this.threads = threads;
+        this.timer = ExecutionBackend.newTimer();
+    }
+
+    @Override
+    public <S, T> CompletableFuture<Result<T>> map(
+            String description,
+            CompletableFuture<Result<S>> futureS,
+            Function<S, T> f,
+            Evaluation evaluation) {
+        return scope(evaluation).fork(() -> applySafely(awaitResult(futureS), f, evaluation));
+    }
+
+    @Override
+    public <T> CompletableFuture<Result<T>> supplyAsync(
+            String description,
+            Supplier<T> supplier,
+            Evaluation evaluation) {
+        final Occupancy.Place place = Occupancy.enter(evaluation);
+        return scope(evaluation).fork(() -> Occupancy.call(place, supplier, evaluation), place);
+    }
+
+    @Override
+    public <T, S1, S2> CompletableFuture<Result<T>> mapTwo(
+            String description,
+            CompletableFuture<Result<S1>> resultOne,
+            CompletableFuture<Result<S2>> resultTwo,
+            BiFunction<S1, S2, T> bif,
+            Evaluation evaluation) {
+        final Scope scope = scope(evaluation);
+        return scope.fork(() -> {
+            final Exception failed = firstFailure(scope, Arrays.asList(resultOne, resultTwo));
+            if (failed != null)
+            {
+                return failure(failed);
+            }
+            return applySafely(resultOne.join(), resultTwo.join(), bif, evaluation);
+        });
+    }
+
+    @Override
+    public <T, S> CompletableFuture<Result<T>> mapMany(
+            String description,
+            List<CompletableFuture<Result<S>>> results,
+            Function<List<S>, T> f,
+            Evaluation evaluation) {
+        final Scope scope = scope(evaluation);
+        return scope.fork(() -> {
+            final Exception failed = firstFailure(scope, results);
+            if (failed != null)
+            {
+                return failure(failed);
+            }
+            return applySafely(all(joinAll(results)), f, evaluation);
+        });
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        threads.execute(task);
+    }
+
+    @Override
+    public Future<?> schedule(Runnable task, Duration delay) {
+        return timer.schedule(() -> execute(task), delay.toNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public <T> CompletableFuture<Result<T>> evaluate(
+            Evaluation evaluation,
+            Supplier<CompletableFuture<Result<T>>> graph) {
+        final Deadline deadline = evaluation.deadline();
+        if (deadline.expired())
+        {
+            return CompletableFuture.completedFuture(failure(deadline.exceeded()));
+        }
+
+        // a scope that has already closed starts no more nodes, so a late caller needs a new one
+        final Scope scope = scopes.compute(evaluation, (e, open) -> open != null && open.enter() ? open : new Scope(e));
+        final CompletableFuture<Result<T>> running;
+        try {
+            running = graph.get();
+        } catch (RuntimeException e) {
+            scope.leave(() -> {});
+            throw e;
+        }
+
+        final CompletableFuture<Result<T>> result = new CompletableFuture<>();
+        if (deadline.bounded())
+        {
+            final Exception timedOut = deadline.exceeded();
+            final ScheduledFuture<?> timeout = timer.schedule(() -> {
+                result.complete(failure(timedOut));
+                scope.close(timedOut);
+            }, deadline.remainingNanos(), TimeUnit.NANOSECONDS);
+            result.whenComplete((r, e) -> timeout.cancel(false));
+        }
+        running.whenComplete((r, e) -> scope.leave(() -> complete(result, r, e)));
+        return result;
+    }
+
+    // nodes interrupted, or dropped before they started, because nobody wanted their result any more
+    long cancelledTasks() {
+        return cancelledTasks.sum();
+    }
+
+    void shutdown() {
+        threads.shutdown();
+        timer.shutdown();
+    }
+
+    private static <T> void complete(
+            final CompletableFuture<Result<T>> result,
+            final Result<T> r,
+            final Throwable e) {
+        if (e == null)
+        {
+            result.complete(r);
+        }
+        else
+        {
+            result.completeExceptionally(e);
+        }
+    }
+
+    // a forked evaluation, e.g. a retry attempt, runs within the scope of the one it came from
+    private Scope scope(final Evaluation evaluation) {
+        final Scope scope = scopes.get(evaluation.root());
+        return scope == null ? unscoped : scope;
+    }
+
+    // Waits for every input, or for the first to fail; in which case the others are cancelled.
+    private static Exception firstFailure(
+            final Scope scope,
+            final List<? extends CompletableFuture<? extends Result<?>>> inputs) {
+        final CompletableFuture<Exception> failed = new CompletableFuture<>();
+        for (CompletableFuture<? extends Result<?>> input : inputs) {
+            input.whenComplete((r, e) -> {
+                final Exception failure = e == null ? failureOf(r) : asException(e);
+                if (failure != null)
+                {
+                    failed.complete(failure);
+                }
+            });
+        }
+        // the last input to complete may not have reported its own failure yet
+        CompletableFuture.allOf(inputs.toArray(new CompletableFuture<?>[0]))
+                .whenComplete((ignored, e) -> failed.complete(scan(inputs)));
+
+        final Exception failure = await(failed).fold(e -> e, e -> e);
+        if (failure != null)
+        {
+            for (CompletableFuture<?> input : inputs) {
+                scope.cancel(input);
+            }
+        }
+        return failure;
+    }
+
+    private static Exception scan(final List<? extends CompletableFuture<? extends Result<?>>> inputs) {
+        for (CompletableFuture<? extends Result<?>> input : inputs) {
+            final Exception failure = input.isCompletedExceptionally()
+                    ? asException(input.handle((r, e) -> e).join())
+                    : failureOf(input.join());
+            if (failure != null)
+            {
+                return failure;
+            }
+        }
+        return null;
+    }
+
+    private static <S> Result<S> await(final CompletableFuture<S> input) {
+        try {
+            return Result.success(input.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return failure(e);
+        } catch (ExecutionException e) {
+            return failure(asException(e.getCause()));
+        } catch (CancellationException e) {
+            return failure(e);
+        }
+    }
+
+    private static <S> Result<S> awaitResult(final CompletableFuture<Result<S>> input) {
+        return await(input).flatMap(r -> r);
+    }
+
+    private static Exception failureOf(final Result<?> result) {
+        return result.fold(e -> e, s -> null);
+    }
+
+    // The nodes started for one evaluation. It closes once every evaluate call sharing it has
+    // its result, or the deadline passes; then it starts no more nodes, and fails the results
+    // of those still running with the reason it was closed.
+    private final class Scope {
+        private final Evaluation evaluation;
+        private final Map<CompletableFuture<?>, Node<?>> running = new HashMap<>();
+        private final List<Runnable> onDrained = new ArrayList<>();
+        private int roots = 1;
+        private Exception closedBecause;
+        private boolean drained;
+
+        Scope(Evaluation evaluation) {
+            this.evaluation = evaluation;
+        }
+
+        // another evaluate call joining the scope, unless it has already closed
+        synchronized boolean enter() {
+            if (closedBecause != null)
+            {
+                return false;
+            }
+            roots++;
+            return true;
+        }
+
+        // One evaluate call has its result. The last to finish closes the scope, and its result
+        // is handed back once the scope has drained; the others, whose nodes may be shared with
+        // calls still running, get theirs straight away.
+        void leave(final Runnable handBack) {
+            final boolean waitForDrain;
+            synchronized (this) {
+                waitForDrain = --roots == 0 && !drained;
+                if (waitForDrain)
+                {
+                    onDrained.add(handBack);
+                }
+            }
+            if (waitForDrain)
+            {
+                close(new CancellationException("evaluation finished"));
+            }
+            else
+            {
+                handBack.run();
+            }
+        }
+
+        <T> CompletableFuture<Result<T>> fork(final Supplier<Result<T>> body) {
+            return fork(body, null);
+        }
+
+        // a supplier's node holds its place in a guarded run until it has run, or never will
+        <T> CompletableFuture<Result<T>> fork(final Supplier<Result<T>> body, final Occupancy.Place place) {
+            final CompletableFuture<Result<T>> result = new CompletableFuture<>();
+            final Node<T> node = new Node<>(this, result, body, place);
+            final Exception closed;
+            synchronized (this) {
+                closed = closedBecause;
+                if (closed == null)
+                {
+                    running.put(result, node);
+                }
+            }
+            if (closed != null)
+            {
+                result.complete(failure(closed));
+                node.vacate();
+                return result;
+            }
+            // e.g. a hedge cancelling its loser
+            result.whenComplete((r, e) -> {
+                if (result.isCancelled())
+                {
+                    node.cancel();
+                }
+            });
+            try {
+                threads.execute(node);
+            } catch (RejectedExecutionException e) {
+                result.complete(failure(e));
+                node.vacate();
+                exited(result);
+            }
+            return result;
+        }
+
+        void cancel(final CompletableFuture<?> input) {
+            final Node<?> node;
+            synchronized (this) {
+                node = running.get(input);
+            }
+            // only nodes started here; shared nodes hand out a future of their own, and run on
+            if (node != null && !input.isDone())
+            {
+                input.cancel(false);
+            }
+        }
+
+        void close(final Exception reason) {
+            final List<Node<?>> cancelled;
+            synchronized (this) {
+                if (closedBecause != null)
+                {
+                    return;
+                }
+                closedBecause = reason;
+                cancelled = new ArrayList<>(running.values());
+            }
+            for (Node<?> node : cancelled) {
+                // one whose result is already in is only winding down
+                if (node.fail(reason))
+                {
+                    node.cancel();
+                }
+            }
+            exited(null);
+        }
+
+        private void exited(final CompletableFuture<?> result) {
+            final List<Runnable> handBacks;
+            synchronized (this) {
+                if (result != null)
+                {
+                    running.remove(result);
+                }
+                if (drained || closedBecause == null || !running.isEmpty())
+                {
+                    return;
+                }
+                drained = true;
+                handBacks = new ArrayList<>(onDrained);
+                onDrained.clear();
+            }
+            scopes.remove(evaluation, this);
+            for (Runnable handBack : handBacks) {
+                handBack.run();
+            }
+        }
+    }
+
+    // One node's body, and the thread running it, so that it can be interrupted.
+    private final class Node<T> implements Runnable {
+        private final Scope scope;
+        private final CompletableFuture<Result<T>> result;
+        private final Supplier<Result<T>> body;
+        private final Occupancy.Place place;
+        private Thread runner;
+        private boolean cancelled;
+        private boolean finished;
+
+        private Node(
+                Scope scope,
+                CompletableFuture<Result<T>> result,
+                Supplier<Result<T>> body,
+                Occupancy.Place place) {
+            this.scope = scope;
+            this.result = result;
+            this.body = body;
+            this.place = place;
+        }
+
+        @Override
+        public void run() {
+            try {
+                synchronized (this) {
+                    if (cancelled)
+                    {
+                        return;
+                    }
+                    runner = Thread.currentThread();
+                }
+                result.complete(body.get());
+            } catch (RuntimeException | Error e) {
+                // or whatever reads the node would wait forever
+                result.complete(failure(asException(e)));
+                throw e;
+            } finally {
+                synchronized (this) {
+                    runner = null;
+                    finished = true;
+                    // an interrupt meant for this node must not leak into the thread's next task
+                    Thread.interrupted();
+                }
+                vacate();
+                scope.exited(result);
+            }
+        }
+
+        // leaves the node's place in a guarded run, unless its body has already claimed it
+        void vacate() {
+            if (place != null)
+            {
+                place.abandon();
+            }
+        }
+
+        boolean fail(final Exception reason) {
+            return result.complete(failure(reason));
+        }
+
+        synchronized void cancel() {
+            if (cancelled || finished)
+            {
+                return;
+            }
+            cancelled = true;
+            cancelledTasks.increment();
+            if (runner != null)
+            {
+                runner.interrupt();
+            }
+        }
+    }
+}
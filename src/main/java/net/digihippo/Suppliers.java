@@ -6,14 +6,16 @@ import static net.digihippo.Result.failure;
 import static net.digihippo.Result.success;
 
 final class Suppliers {
-    static <T> Supplier<Result<T>> wrapExceptions(Supplier<T> supplier) {
-        return () -> {
-            try {
-                return success(supplier.get());
-            } catch (Exception e) {
-                return failure(e);
-            }
-        };
+    static <T> Result<T> getSafely(Supplier<T> supplier, Evaluation evaluation) {
+        if (evaluation.dropped())
+        {
+            return failure(evaluation.dropReason());
+        }
+        try {
+            return success(supplier.get());
+        } catch (Exception e) {
+            return failure(e);
+        }
     }
 
     private Suppliers() {}
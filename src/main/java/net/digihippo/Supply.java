@@ -1,24 +1,29 @@
 package net.digihippo;
 
-import java.time.Duration;
 import java.util.concurrent.CompletableFuture;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Supplier;
 
-import static net.digihippo.Suppliers.wrapExceptions;
+import static net.digihippo.Suppliers.getSafely;
 
 class Supply<T> implements OneSource<T> {
+    private final String description;
     private final Supplier<T> supplier;
 
     Supply(Supplier<T> supplier) {
+        this("supply", supplier);
+    }
+
+    Supply(String description, Supplier<T> supplier) {
+        this.description = description;
         this.supplier = supplier;
     }
 
     @Override
     public void consume(Consumer<Result<T>> consumer)
     {
-        consumer.accept(wrapExceptions(supplier).get());
+        consumer.accept(getSafely(supplier, Evaluation.unbounded()));
     }
 
     @Override
@@ -27,13 +32,18 @@ class Supply<T> implements OneSource<T> {
         return new TwoSource<>(shared.map(f1), shared.map(f2));
     }
 
+    // duplicates slow calls to the supplier, as the hedge decides
+    OneSource<T> hedged(final Hedge hedge) {
+        return new HedgedSupply<>(description, supplier, hedge);
+    }
+
     @Override
-    public CompletableFuture<Result<T>> asyncExec(Executor executor) {
-        return executor.supplyAsync(supplier);
+    public CompletableFuture<Result<T>> asyncExec(Executor executor, Evaluation evaluation) {
+        return executor.supplyAsync(description, supplier, evaluation);
     }
 
     @Override
-    public CompletableFuture<Result<T>> asyncExec(Executor executor, Duration timeout) {
-        return executor.supplyAsync(supplier, timeout);
+    public int addTo(Plan.Builder plan) {
+        return plan.supply(description, supplier);
     }
 }
@@ -0,0 +1,212 @@
+package net.digihippo;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// A record of every stage run during one traced evaluation: when it ran, on which thread,
+// and which stages produced its inputs. Stages are linked through the futures they return,
+// so a shared node's future is recorded as an alias of the future that actually ran it.
+final class Trace {
+    private final long createdAt = System.nanoTime();
+    private final AtomicInteger ids = new AtomicInteger();
+    private final ConcurrentLinkedQueue<Span> spans = new ConcurrentLinkedQueue<>();
+    private final Map<Object, Span> producedBy = new ConcurrentHashMap<>();
+    private final Map<Object, Object> aliases = new ConcurrentHashMap<>();
+    private volatile CompletableFuture<?> root;
+
+    Span open(final String description, final List<? extends CompletableFuture<?>> inputs) {
+        final Span span = new Span(ids.incrementAndGet(), description, inputs);
+        spans.add(span);
+        return span;
+    }
+
+    void produced(final CompletableFuture<?> output, final Span span) {
+        producedBy.put(output, span);
+        // a stage that never ran, e.g. after an upstream failure, ends when its output does
+        output.whenComplete((r, e) -> span.skipped());
+    }
+
+    void alias(final CompletableFuture<?> alias, final CompletableFuture<?> original) {
+        if (alias != original)
+        {
+            aliases.put(alias, original);
+        }
+    }
+
+    void root(final CompletableFuture<?> output) {
+        root = output;
+    }
+
+    List<Span> spans() {
+        return new ArrayList<>(spans);
+    }
+
+    // From the first stage to the root, always stepping back to the input that finished last.
+    List<Span> criticalPath() {
+        final List<Span> path = new ArrayList<>();
+        Span span = root == null ? null : spanFor(root);
+        while (span != null)
+        {
+            path.add(span);
+            Span latest = null;
+            for (CompletableFuture<?> input : span.inputs) {
+                final Span parent = spanFor(input);
+                if (parent != null && (latest == null || parent.endedAt > latest.endedAt))
+                {
+                    latest = parent;
+                }
+            }
+            span = latest;
+        }
+        Collections.reverse(path);
+        return path;
+    }
+
+    // The Trace Event Format understood by chrome://tracing, Perfetto and friends;
+    // stages on the critical path are tagged with "critical": true.
+    String toTraceEvents() {
+        final List<Span> critical = criticalPath();
+        final StringBuilder json = new StringBuilder("{\"traceEvents\":[");
+        final Map<Long, String> threads = new LinkedHashMap<>();
+        boolean first = true;
+        for (Span span : spans) {
+            if (!span.finished())
+            {
+                continue;
+            }
+            threads.put(span.threadId, span.threadName);
+            if (!first)
+            {
+                json.append(',');
+            }
+            first = false;
+            json.append("{\"name\":\"").append(escape(span.description))
+                    .append("\",\"cat\":\"dagger\",\"ph\":\"X\",\"pid\":1,\"tid\":").append(span.threadId)
+                    .append(",\"ts\":").append(micros(span.startedAt - createdAt))
+                    .append(",\"dur\":").append(micros(span.endedAt - span.startedAt))
+                    .append(",\"args\":{\"id\":").append(span.id)
+                    .append(",\"parents\":").append(parentIds(span))
+                    .append(",\"critical\":").append(critical.contains(span))
+                    .append(",\"ran\":").append(span.ran)
+                    .append("}}");
+        }
+        for (Map.Entry<Long, String> thread : threads.entrySet()) {
+            if (!first)
+            {
+                json.append(',');
+            }
+            first = false;
+            json.append("{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":").append(thread.getKey())
+                    .append(",\"args\":{\"name\":\"").append(escape(thread.getValue())).append("\"}}");
+        }
+        return json.append("]}").toString();
+    }
+
+    private Span spanFor(final Object future) {
+        Object current = future;
+        while (current != null)
+        {
+            final Span span = producedBy.get(current);
+            if (span != null)
+            {
+                return span;
+            }
+            current = aliases.get(current);
+        }
+        return null;
+    }
+
+    private String parentIds(final Span span) {
+        final StringBuilder ids = new StringBuilder("[");
+        for (CompletableFuture<?> input : span.inputs) {
+            final Span parent = spanFor(input);
+            if (parent != null)
+            {
+                if (ids.length() > 1)
+                {
+                    ids.append(',');
+                }
+                ids.append(parent.id);
+            }
+        }
+        return ids.append(']').toString();
+    }
+
+    private static String micros(final long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1000.0);
+    }
+
+    private static String escape(final String s) {
+        return s.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+    static final class Span {
+        private final int id;
+        private final String description;
+        private final List<? extends CompletableFuture<?>> inputs;
+        private volatile long startedAt;
+        private volatile long endedAt;
+        private volatile long threadId;
+        private volatile String threadName;
+        private volatile boolean ran;
+
+        private Span(int id, String description, List<? extends CompletableFuture<?>> inputs) {
+            this.id = id;
+            this.description = description;
+            this.inputs = inputs;
+        }
+
+        void started() {
+            final Thread thread = Thread.currentThread();
+            threadId = thread.getId();
+            threadName = thread.getName();
+            startedAt = System.nanoTime();
+        }
+
+        void ended() {
+            endedAt = System.nanoTime();
+            ran = true;
+        }
+
+        private synchronized void skipped() {
+            if (!ran && startedAt == 0)
+            {
+                started();
+                endedAt = startedAt;
+            }
+        }
+
+        String description() {
+            return description;
+        }
+
+        String threadName() {
+            return threadName;
+        }
+
+        long durationNanos() {
+            return endedAt - startedAt;
+        }
+
+        boolean ran() {
+            return ran;
+        }
+
+        private boolean finished() {
+            return endedAt != 0;
+        }
+
+        @Override
+        public String toString() {
+            return description + "#" + id;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package net.digihippo;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+// Wraps another executor for the length of one traced evaluation, recording a span per stage.
+final class TracingExecutor implements Executor {
+    private final Executor delegate;
+    private final Trace trace;
+
+    TracingExecutor(Executor delegate, Trace trace) {
+        this.delegate = delegate;
+        this.trace = trace;
+    }
+
+    @Override
+    public <S, T> CompletableFuture<Result<T>> map(
+            String description,
+            CompletableFuture<Result<S>> futureS,
+            Function<S, T> f,
+            Evaluation evaluation) {
+        final Trace.Span span = trace.open(description, Collections.singletonList(futureS));
+        return produced(span, delegate.map(description, futureS, spanned(span, f), evaluation));
+    }
+
+    @Override
+    public <S, T> CompletableFuture<Result<T>> mapInline(
+            String description,
+            CompletableFuture<Result<S>> futureS,
+            Function<S, T> f,
+            Evaluation evaluation) {
+        final Trace.Span span = trace.open(description, Collections.singletonList(futureS));
+        return produced(span, delegate.mapInline(description, futureS, spanned(span, f), evaluation));
+    }
+
+    @Override
+    public <T> CompletableFuture<Result<T>> supplyAsync(
+            String description,
+            Supplier<T> supplier,
+            Evaluation evaluation) {
+        final Trace.Span span = trace.open(description, Collections.emptyList());
+        return produced(span, delegate.supplyAsync(description, () -> {
+            span.started();
+            try {
+                return supplier.get();
+            } finally {
+                span.ended();
+            }
+        }, evaluation));
+    }
+
+    @Override
+    public <T, S1, S2> CompletableFuture<Result<T>> mapTwo(
+            String description,
+            CompletableFuture<Result<S1>> resultOne,
+            CompletableFuture<Result<S2>> resultTwo,
+            BiFunction<S1, S2, T> bif,
+            Evaluation evaluation) {
+        final Trace.Span span = trace.open(description, Arrays.asList(resultOne, resultTwo));
+        return produced(span, delegate.mapTwo(description, resultOne, resultTwo, (s1, s2) -> {
+            span.started();
+            try {
+                return bif.apply(s1, s2);
+            } finally {
+                span.ended();
+            }
+        }, evaluation));
+    }
+
+    @Override
+    public <T, S> CompletableFuture<Result<T>> mapMany(
+            String description,
+            List<CompletableFuture<Result<S>>> results,
+            Function<List<S>, T> f,
+            Evaluation evaluation) {
+        final Trace.Span span = trace.open(description, results);
+        return produced(span, delegate.mapMany(description, results, spanned(span, f), evaluation));
+    }
+
+    @Override
+    public Evaluation branch(Evaluation evaluation) {
+        return delegate.branch(evaluation);
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        delegate.execute(task);
+    }
+
+    @Override
+    public void execute(Runnable task, TrafficClass trafficClass) {
+        delegate.execute(task, trafficClass);
+    }
+
+    @Override
+    public Future<?> schedule(Runnable task, Duration delay) {
+        return delegate.schedule(task, delay);
+    }
+
+    @Override
+    public Future<?> schedule(Runnable task, Duration delay, TrafficClass trafficClass) {
+        return delegate.schedule(task, delay, trafficClass);
+    }
+
+    @Override
+    public <T> CompletableFuture<Result<T>> evaluate(
+            Evaluation evaluation,
+            Supplier<CompletableFuture<Result<T>>> graph) {
+        return delegate.evaluate(evaluation, () -> {
+            final CompletableFuture<Result<T>> output = graph.get();
+            trace.root(output);
+            return output;
+        });
+    }
+
+    // still the same stage, if it was one, so that its runs count towards the stage's cost
+    private static <S, T> Function<S, T> spanned(final Trace.Span span, final Function<S, T> f) {
+        final Function<S, T> spanned = s -> {
+            span.started();
+            try {
+                return f.apply(s);
+            } finally {
+                span.ended();
+            }
+        };
+        return f instanceof StageCosts.Stage ? ((StageCosts.Stage<S, T>) f).around(spanned) : spanned;
+    }
+
+    private <T> CompletableFuture<Result<T>> produced(
+            final Trace.Span span,
+            final CompletableFuture<Result<T>> output) {
+        trace.produced(output, span);
+        return output;
+    }
+}
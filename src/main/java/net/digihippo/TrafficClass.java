@@ -0,0 +1,54 @@
+package net.digihippo;
+
+import java.util.Objects;
+
+// Who an evaluation is running for. Where a backend dispatches fairly, each class
+// gets a share of the workers in proportion to its weight while it has work queued.
+final class TrafficClass {
+    static final TrafficClass DEFAULT = new TrafficClass("default", 1);
+
+    private final String name;
+    private final int weight;
+
+    TrafficClass(String name, int weight) {
+        if (weight < 1)
+        {
+            throw new IllegalArgumentException("Weight must be at least one, was " + weight);
+        }
+        this.name = Objects.requireNonNull(name);
+        this.weight = weight;
+    }
+
+    String name() {
+        return name;
+    }
+
+    int weight() {
+        return weight;
+    }
+
+    // a value, so that classes made separately with the same name and weight are the same class
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+        {
+            return true;
+        }
+        if (!(o instanceof TrafficClass))
+        {
+            return false;
+        }
+        final TrafficClass that = (TrafficClass) o;
+        return weight == that.weight && name.equals(that.name);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * name.hashCode() + weight;
+    }
+
+    @Override
+    public String toString() {
+        return name + "(" + weight + ")";
+    }
+}
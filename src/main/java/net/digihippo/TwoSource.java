@@ -1,10 +1,12 @@
 package net.digihippo;
 
 import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.BiFunction;
 import java.util.function.Consumer;
 import java.util.function.Function;
 
+import static net.digihippo.Result.failure;
 import static net.digihippo.Result.success;
 
 class TwoSource<T1, T2> {
@@ -16,6 +18,17 @@ class TwoSource<T1, T2> {
         this.sourceTwo = sourceTwo;
     }
 
+    // Either branch on its own. Only what that branch reads is evaluated; the other is never started.
+    OneSource<T1> first()
+    {
+        return sourceOne;
+    }
+
+    OneSource<T2> second()
+    {
+        return sourceTwo;
+    }
+
     <U1> TwoSource<U1, T2> mapFirst(final Function<T1, U1> f)
     {
         return new TwoSource<>(sourceOne.map(f), sourceTwo);
@@ -23,17 +36,16 @@ class TwoSource<T1, T2> {
 
     void consume(final Consumer<Result<T1>> c1, final Consumer<Result<T2>> c2)
     {
-        sourceOne.consume(c1);
-        sourceTwo.consume(c2);
+        asyncConsume(new ImmediateExecutor(), c1, c2);
     }
 
+    // both branches are one evaluation, so anything they share is only evaluated once
     void asyncConsume(
             final Executor executor,
             final Consumer<Result<T1>> c1,
             final Consumer<Result<T2>> c2)
     {
-        sourceOne.asyncExec(executor).thenAccept(c1);
-        sourceTwo.asyncExec(executor).thenAccept(c2);
+        asyncConsume(executor, Evaluation.unbounded(), c1, c2);
     }
 
     void asyncConsume(
@@ -42,12 +54,58 @@ class TwoSource<T1, T2> {
             final Consumer<Result<T1>> c1,
             final Consumer<Result<T2>> c2)
     {
-        sourceOne.asyncExec(executor, timeout).thenAccept(c1);
-        sourceTwo.asyncExec(executor, timeout).thenAccept(c2);
+        asyncConsume(executor, Evaluation.within(timeout), c1, c2);
+    }
+
+    private void asyncConsume(
+            final Executor executor,
+            final Evaluation evaluation,
+            final Consumer<Result<T1>> c1,
+            final Consumer<Result<T2>> c2)
+    {
+        // One evaluate call for both halves, so the evaluation is admitted, timed and shed once.
+        // Each half is still handed over as soon as it is done; a failure of the evaluation
+        // itself reaches whichever halves are not.
+        final CompletableFuture<Result<T1>> one = new CompletableFuture<>();
+        final CompletableFuture<Result<T2>> two = new CompletableFuture<>();
+        one.thenAccept(c1);
+        two.thenAccept(c2);
+        executor.<Void>evaluate(evaluation, () -> {
+            sourceOne.asyncExec(executor, evaluation).thenAccept(one::complete);
+            sourceTwo.asyncExec(executor, evaluation).thenAccept(two::complete);
+            return one.thenCombine(two, (r1, r2) -> success(null));
+        }).thenAccept(r -> r.consume(
+                e -> {
+                    one.complete(failure(e));
+                    two.complete(failure(e));
+                },
+                done -> {}));
+    }
+
+    // both branches compiled into one plan, run once per evaluation
+    TwoSource<T1, T2> compile()
+    {
+        final Plan.Builder builder = new Plan.Builder();
+        final int one = sourceOne.addTo(builder);
+        final int two = sourceTwo.addTo(builder);
+        final Plan plan = builder.build(one, two);
+        return new TwoSource<>(new CompiledSource<>(plan, one), new CompiledSource<>(plan, two));
     }
 
     <U> OneSource<U> join(final BiFunction<T1, T2, U> bif)
     {
-        return new JoinSource<>(sourceOne, sourceTwo, bif);
+        return join("join", bif);
+    }
+
+    <U> OneSource<U> join(final String description, final BiFunction<T1, T2, U> bif)
+    {
+        return new JoinSource<>(sourceOne, sourceTwo, description, bif);
+    }
+
+    // Starts the second branch only once the first has succeeded, so a failure of the first
+    // costs nothing more; at the price of running the two one after the other.
+    <U> OneSource<U> joinInOrder(final String description, final BiFunction<T1, T2, U> bif)
+    {
+        return new JoinSource<>(sourceOne, sourceTwo, description, bif, true);
     }
 }
@@ -0,0 +1,22 @@
+package net.digihippo;
+
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+class TwoStreamSource<T1, T2> {
+    private final StreamSource.PerElement<?, TwoSource<T1, T2>> perElement;
+
+    TwoStreamSource(StreamSource.PerElement<?, TwoSource<T1, T2>> perElement) {
+        this.perElement = perElement;
+    }
+
+    <U1> TwoStreamSource<U1, T2> mapFirst(final Function<T1, U1> f)
+    {
+        return new TwoStreamSource<>(perElement.with(perElement.graph.mapFirst(f)));
+    }
+
+    <U> StreamSource<U> join(final BiFunction<T1, T2, U> bif)
+    {
+        return new StreamSource<>(perElement.with(perElement.graph.join(bif)));
+    }
+}
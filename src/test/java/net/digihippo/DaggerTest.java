@@ -6,15 +6,22 @@ import java.time.Duration;
 import java.time.temporal.ChronoUnit;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Supplier;
 
 import static java.util.Arrays.asList;
+import static java.util.Collections.singleton;
 import static java.util.Collections.singletonList;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 public class DaggerTest {
     private final List<String> output = new ArrayList<>();
@@ -136,27 +143,1930 @@ public class DaggerTest {
         BlockingFunction<String, Integer> blockOne = block(String::length);
         BlockingFunction<String, String> blockTwo = block(this::firstWord);
         BlockingFunction<Integer, Integer> blockThree = block(l -> l + 15);
+        // the timeout bounds the whole evaluation, so a branch still blocked when it passes
+        // fails, whatever the other branch has managed in the meantime
         src.mapTwo(blockOne, blockTwo)
                 .mapFirst(blockThree)
                 .asyncConsume(
                         executor,
-                        Duration.of(25, ChronoUnit.MILLIS),
-                        assertSuccessAnd(l -> asyncOutput.add(Long.toString(l))),
+                        Duration.of(2, ChronoUnit.SECONDS),
+                        r -> r.consume(
+                                e -> asyncOutput.add(e.getClass().getSimpleName()),
+                                l -> asyncOutput.add(Long.toString(l))),
                         assertSuccessAnd(asyncOutput::add));
 
         assertNull(asyncOutput.poll());
 
         blockTwo.unblock();
+        assertEquals("hello", asyncOutput.poll(2, TimeUnit.SECONDS));
 
-        final Set<String> results = new HashSet<>();
-        results.add(asyncOutput.poll(1, TimeUnit.SECONDS));
-        assertEquals(new HashSet<>(singletonList("hello")), results);
+        assertEquals("TimeoutException", asyncOutput.poll(5, TimeUnit.SECONDS));
 
         blockOne.unblock();
         blockThree.unblock();
+        executor.shutdown();
+    }
 
-        results.add(asyncOutput.poll(1, TimeUnit.SECONDS));
-        assertEquals(new HashSet<>(asList("26", "hello")), results);
+    @Test
+    public void every_backend_evaluates_the_same_graph() throws Exception {
+        final List<ExecutionBackend> backends = asList(
+                ExecutionBackend.fixed(2),
+                ExecutionBackend.workStealing(2),
+                ExecutionBackend.workStealingWithThreadPerSupplier());
+        for (ExecutionBackend backend : backends) {
+            final AsynchronousExecutor executor = new AsynchronousExecutor(backend);
+            final CompletableFuture<Result<String>> result = source(() -> "hello world")
+                    .mapTwo(String::length, this::firstWord)
+                    .join((length, word) -> "" + length + " " + word)
+                    .asyncExec(executor);
+
+            result.get(1, TimeUnit.SECONDS).consumeOrThrow(output::add);
+            executor.shutdown();
+        }
+
+        assertEquals(asList("11 hello", "11 hello", "11 hello"), output);
+    }
+
+    @Test
+    public void consecutive_maps_are_fused_into_one_stage()
+    {
+        final AtomicInteger stages = new AtomicInteger();
+        final Executor counting = new ImmediateExecutor() {
+            @Override
+            public <S, T> CompletableFuture<Result<T>> map(
+                    String description,
+                    CompletableFuture<Result<S>> futureS,
+                    Function<S, T> f,
+                    Evaluation evaluation) {
+                stages.incrementAndGet();
+                return super.map(description, futureS, f, evaluation);
+            }
+        };
+
+        source(() -> "hello world")
+                .map(String::length)
+                .map(l -> l + 15)
+                .map(l -> Long.toString(l))
+                .asyncConsume(counting, assertSuccessAnd(output::add));
+        assertEquals(1, stages.get());
+
+        source(() -> "hello world")
+                .map(String::length)
+                .mapSeparately(l -> l + 15)
+                .map(l -> Long.toString(l))
+                .asyncConsume(counting, assertSuccessAnd(output::add));
+        assertEquals(1 + 3, stages.get());
+
+        assertEquals(asList("26", "26"), output);
+    }
+
+    @Test
+    public void joins_run_on_the_executors_own_pool() throws Exception {
+        final AsynchronousExecutor executor = new AsynchronousExecutor(ExecutionBackend.fixed(2));
+        final CompletableFuture<Result<String>> result = source(() -> "hello world")
+                .mapTwo(String::length, this::firstWord)
+                .join((length, word) -> Thread.currentThread().getName())
+                .asyncExec(executor);
+
+        result.get(1, TimeUnit.SECONDS).consumeOrThrow(output::add);
+        executor.shutdown();
+
+        assertTrue(output.get(0), output.get(0).startsWith("dagger-worker-"));
+    }
+
+    @Test
+    public void a_deadline_bounds_slow_maps_and_joins() throws Exception {
+        final AsynchronousExecutor executor = new AsynchronousExecutor();
+        final BlockingFunction<String, Integer> slowMap = block(String::length);
+        final BlockingFunction<String, String> slowJoin = block(s -> s);
+
+        final Result<Integer> mapped = source(() -> "hello world")
+                .map(slowMap)
+                .asyncExec(executor, Duration.ofMillis(25))
+                .get(1, TimeUnit.SECONDS);
+        final Result<String> joined = source(() -> "hello world")
+                .mapTwo(String::length, this::firstWord)
+                .join((length, word) -> slowJoin.apply(word))
+                .asyncExec(executor, Duration.ofMillis(25))
+                .get(1, TimeUnit.SECONDS);
+
+        mapped.consume(e -> assertEquals(TimeoutException.class, e.getClass()), fail());
+        joined.consume(e -> assertEquals(TimeoutException.class, e.getClass()), fail());
+        slowMap.unblock();
+        slowJoin.unblock();
+        executor.shutdown();
+    }
+
+    @Test
+    public void stages_that_cannot_meet_the_deadline_are_not_run() throws Exception {
+        final AsynchronousExecutor executor = new AsynchronousExecutor();
+        final BlockingFunction<String, Integer> slow = block(String::length);
+        final AtomicInteger laterStages = new AtomicInteger();
+
+        final CompletableFuture<Result<Integer>> result = source(() -> "hello world")
+                .mapSeparately(slow)
+                .mapSeparately(l -> laterStages.incrementAndGet())
+                .asyncExec(executor, Duration.ofMillis(25));
+        result.get(1, TimeUnit.SECONDS)
+                .consume(e -> assertEquals(TimeoutException.class, e.getClass()), fail());
+        slow.unblock();
+        Thread.sleep(50);
+        executor.shutdown();
+
+        assertEquals(0, laterStages.get());
+    }
+
+    @Test
+    public void timed_out_suppliers_are_interrupted() throws Exception {
+        final AsynchronousExecutor executor = new AsynchronousExecutor();
+        final CountDownLatch interrupted = new CountDownLatch(1);
+
+        final Result<String> result = source(() -> {
+            try {
+                Thread.sleep(10_000);
+                return "too late";
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+                throw new RuntimeException(e);
+            }
+        }).asyncExec(executor, Duration.ofMillis(25)).get(1, TimeUnit.SECONDS);
+
+        result.consume(e -> assertEquals(TimeoutException.class, e.getClass()), fail());
+        assertTrue(interrupted.await(1, TimeUnit.SECONDS));
+        // counted once cancel(true) returns, which can be just after the supplier sees its interrupt
+        final long giveUpAt = System.currentTimeMillis() + 1000;
+        while (executor.cancelledTasks() == 0 && System.currentTimeMillis() < giveUpAt)
+        {
+            Thread.sleep(1);
+        }
+        assertEquals(1, executor.cancelledTasks());
+        executor.shutdown();
+    }
+
+    @Test
+    public void timeouts_are_descheduled_once_the_result_arrives() throws Exception {
+        final ExecutionBackend backend = ExecutionBackend.fixed(2);
+        final AsynchronousExecutor executor = new AsynchronousExecutor(backend);
+
+        source(() -> "hello world")
+                .mapTwo(String::length, this::firstWord)
+                .join((length, word) -> "" + length + " " + word)
+                .asyncExec(executor, Duration.ofHours(1))
+                .get(1, TimeUnit.SECONDS)
+                .consumeOrThrow(output::add);
+
+        assertEquals(singletonList("11 hello"), output);
+        assertEquals(0, ((ScheduledThreadPoolExecutor) backend.timer()).getQueue().size());
+        assertEquals(0, executor.cancelledTasks());
+        executor.shutdown();
+    }
+
+    @Test
+    public void fan_out_to_many_functions_and_join_them_in_one_step() throws Exception {
+        final List<Function<String, String>> lookups = asList(
+                s -> s.toUpperCase(), this::firstWord, s -> s.substring(6), s -> Integer.toString(s.length()));
+        final AsynchronousExecutor executor = new AsynchronousExecutor();
+
+        source(onceOnly("hello world"))
+                .mapMany(lookups)
+                .join(words -> String.join(",", words))
+                .consume(assertSuccessAnd(output::add));
+        source(onceOnly("hello world"))
+                .mapMany(lookups)
+                .map(String::length)
+                .join(lengths -> lengths.toString())
+                .asyncExec(executor)
+                .get(1, TimeUnit.SECONDS)
+                .consumeOrThrow(output::add);
+        executor.shutdown();
+
+        assertEquals(asList("HELLO WORLD,hello,world,11", "[11, 5, 5, 2]"), output);
+    }
+
+    @Test
+    public void a_many_way_join_fails_with_the_first_failure()
+    {
+        ManySource.of(asList(source(() -> "fine"), source(() -> "short".substring(10)), source(() -> "fine")))
+                .consume(assertErrorAnd(e -> assertEquals(StringIndexOutOfBoundsException.class, e.getClass())));
+    }
+
+    @Test
+    public void streams_apply_each_stage_per_element()
+    {
+        StreamSource.of(asList("hello world", "", "goodbye cruel world"))
+                .mapTwo(String::length, s -> s.charAt(0))
+                .join((length, initial) -> initial + "" + length)
+                .consume(r -> r.consume(e -> output.add(e.getClass().getSimpleName()), output::add));
+
+        assertEquals(asList("h11", "StringIndexOutOfBoundsException", "g19"), output);
+    }
+
+    @Test
+    public void streams_only_pull_elements_that_have_been_requested() throws Exception {
+        final AsynchronousExecutor executor = new AsynchronousExecutor();
+        final AtomicInteger pulled = new AtomicInteger();
+        final Iterable<Integer> elements = () -> new Iterator<Integer>() {
+            @Override
+            public boolean hasNext() {
+                return pulled.get() < 10;
+            }
+
+            @Override
+            public Integer next() {
+                return pulled.incrementAndGet();
+            }
+        };
+        final CountDownLatch firstThree = new CountDownLatch(3);
+        final CountDownLatch completed = new CountDownLatch(1);
+        final AtomicReference<Flow.Subscription> subscription = new AtomicReference<>();
+
+        StreamSource.of(elements).map(i -> i * 10).publish(executor, 2).subscribe(new Flow.Subscriber<Result<Integer>>() {
+            @Override
+            public void onSubscribe(Flow.Subscription s) {
+                subscription.set(s);
+                s.request(3);
+            }
+
+            @Override
+            public void onNext(Result<Integer> item) {
+                assertSuccessAnd((Integer i) -> asyncOutput.add(Integer.toString(i))).accept(item);
+                firstThree.countDown();
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                asyncOutput.add(throwable.toString());
+            }
+
+            @Override
+            public void onComplete() {
+                completed.countDown();
+            }
+        });
+
+        assertTrue(firstThree.await(1, TimeUnit.SECONDS));
+        Thread.sleep(50);
+        assertEquals(3, pulled.get());
+        assertEquals(asList("10", "20", "30"), new ArrayList<>(asyncOutput));
+
+        subscription.get().request(Long.MAX_VALUE);
+        assertTrue(completed.await(1, TimeUnit.SECONDS));
+        assertEquals(10, asyncOutput.size());
+        assertEquals("100", new ArrayList<>(asyncOutput).get(9));
+        executor.shutdown();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void a_stream_needs_room_for_at_least_one_element_in_flight()
+    {
+        StreamSource.of(asList(1, 2, 3)).publish(new ImmediateExecutor(), 0);
+    }
+
+    @Test
+    public void cancelling_a_stream_abandons_the_elements_still_evaluating() throws Exception {
+        final AsynchronousExecutor executor = new AsynchronousExecutor();
+        final CountDownLatch started = new CountDownLatch(2);
+        final BlockingFunction<String, String> stuck = block(s -> s);
+        final AtomicInteger joined = new AtomicInteger();
+        final AtomicReference<Flow.Subscription> subscription = new AtomicReference<>();
+        try {
+            StreamSource.of(asList("a", "b", "c"))
+                    .mapTwo(s -> {
+                        started.countDown();
+                        return stuck.apply(s);
+                    }, String::length)
+                    .join((s, length) -> {
+                        joined.incrementAndGet();
+                        return s + length;
+                    })
+                    .publish(executor, 2)
+                    .subscribe(new Flow.Subscriber<Result<String>>() {
+                        @Override
+                        public void onSubscribe(Flow.Subscription s) {
+                            subscription.set(s);
+                            s.request(3);
+                        }
+
+                        @Override
+                        public void onNext(Result<String> item) {
+                            asyncOutput.add(item.toString());
+                        }
+
+                        @Override
+                        public void onError(Throwable throwable) {
+                            asyncOutput.add(throwable.toString());
+                        }
+
+                        @Override
+                        public void onComplete() {
+                            asyncOutput.add("complete");
+                        }
+                    });
+
+            assertTrue(started.await(1, TimeUnit.SECONDS));
+            subscription.get().cancel();
+            stuck.unblock();
+
+            Thread.sleep(100);
+            assertEquals(0, joined.get());
+            assertNull(asyncOutput.poll());
+        } finally {
+            stuck.unblock();
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void concurrent_evaluations_share_batch_calls() throws Exception {
+        final AsynchronousExecutor executor = new AsynchronousExecutor();
+        final List<List<String>> batches = new CopyOnWriteArrayList<>();
+        final Batcher<String, Integer> lengths = new Batcher<>(words -> {
+            batches.add(words);
+            final List<Integer> result = new ArrayList<>();
+            words.forEach(w -> result.add(w.length()));
+            return result;
+        }, 3, Duration.ofMillis(200));
+
+        final List<CompletableFuture<Result<Integer>>> results = new ArrayList<>();
+        for (String word : asList("a", "bb", "ccc", "dddd", "eeeee")) {
+            results.add(source(() -> word).mapBatched(lengths).asyncExec(executor));
+        }
+        for (CompletableFuture<Result<Integer>> result : results) {
+            result.get(1, TimeUnit.SECONDS).consumeOrThrow(l -> output.add(Integer.toString(l)));
+        }
+        executor.shutdown();
+
+        assertEquals(asList("1", "2", "3", "4", "5"), output);
+        assertEquals(2, batches.size());
+        assertEquals(5, batches.get(0).size() + batches.get(1).size());
+    }
+
+    @Test
+    public void the_immediate_executor_flushes_batches_on_demand()
+    {
+        final Batcher<String, Integer> lengths = new Batcher<>(words -> {
+            output.add(words.toString());
+            return singletonList(words.get(0).length());
+        }, 100, Duration.ofHours(1));
+
+        source(() -> "hello world").mapBatched(lengths).consume(assertSuccessAnd(l -> output.add(Long.toString(l))));
+
+        assertEquals(asList("[hello world]", "11"), output);
+    }
+
+    @Test
+    public void a_full_batch_cancels_its_timer_and_an_error_fails_its_callers()
+    {
+        final List<CompletableFuture<Void>> timers = new ArrayList<>();
+        final ImmediateExecutor executor = new ImmediateExecutor() {
+            @Override
+            public Future<?> schedule(Runnable task, Duration delay) {
+                final CompletableFuture<Void> timer = new CompletableFuture<>();
+                timers.add(timer);
+                return timer;
+            }
+        };
+        final Batcher<String, Integer> lengths = new Batcher<>(words -> {
+            if (words.contains("boom"))
+            {
+                throw new AssertionError("boom");
+            }
+            return asList(words.get(0).length(), words.get(1).length());
+        }, 2, Duration.ofHours(1));
+
+        final CompletableFuture<Result<Integer>> first = lengths.submit("a", executor, Evaluation.unbounded());
+        lengths.submit("bb", executor, Evaluation.unbounded());
+        assertTrue(first.isDone());
+        assertTrue(timers.get(0).isCancelled());
+
+        final CompletableFuture<Result<Integer>> waiting = lengths.submit("c", executor, Evaluation.unbounded());
+        try {
+            lengths.submit("boom", executor, Evaluation.unbounded());
+        } catch (AssertionError e) {
+            output.add(e.getMessage());
+        }
+        waiting.join().consume(e -> output.add(e.getCause().getMessage()), fail());
+
+        assertEquals(asList("boom", "boom"), output);
+    }
+
+    @Test
+    public void a_batch_leaves_out_callers_dropped_before_it_flushes()
+    {
+        final Batcher<String, Integer> lengths = new Batcher<>(words -> {
+            output.add(words.toString());
+            final List<Integer> result = new ArrayList<>();
+            words.forEach(w -> result.add(w.length()));
+            return result;
+        }, 3, Duration.ofHours(1));
+        final ImmediateExecutor executor = new ImmediateExecutor() {
+            @Override
+            public Future<?> schedule(Runnable task, Duration delay) {
+                return new CompletableFuture<Void>();
+            }
+        };
+        final Evaluation abandoned = Evaluation.unbounded();
+        final Evaluation timedOut = Evaluation.within(Duration.ZERO);
+        final Consumer<Result<Integer>> collect =
+                r -> r.consume(e -> output.add(e.getMessage()), l -> output.add(l.toString()));
+
+        final CompletableFuture<Result<Integer>> first = lengths.submit("a", executor, Evaluation.unbounded());
+        final CompletableFuture<Result<Integer>> second = lengths.submit("bb", executor, abandoned);
+        abandoned.abandon(new CancellationException("not wanted"));
+        lengths.submit("ccc", executor, timedOut).thenAccept(collect);
+        lengths.submit("dddd", executor, Evaluation.unbounded()).thenAccept(collect);
+        first.thenAccept(collect);
+        second.thenAccept(collect);
+
+        assertEquals(asList("bad luck, timed out", "[a, dddd]", "4", "1", "not wanted"), output);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void a_batch_holds_at_least_one_input()
+    {
+        new Batcher<String, Integer>(words -> singletonList(words.size()), 0, Duration.ofMillis(1));
+    }
+
+    @Test
+    public void a_full_batch_is_flushed_in_its_callers_traffic_class() throws Exception
+    {
+        final ExecutionBackend backend = ExecutionBackend.fair(2);
+        final AsynchronousExecutor executor = new AsynchronousExecutor(backend);
+        final Batcher<String, Integer> lengths =
+                new Batcher<>(words -> singletonList(words.get(0).length()), 1, Duration.ofHours(1));
+        try {
+            source(() -> "hello").mapBatched(lengths)
+                    .asyncExec(executor, Duration.ofSeconds(5), new TrafficClass("batch", 1))
+                    .get(5, TimeUnit.SECONDS)
+                    .consume(fail(), l -> output.add(l.toString()));
+
+            assertEquals(singletonList("5"), output);
+            assertEquals(singleton("batch"), backend.dispatcher().snapshot().keySet());
+            assertEquals(2, backend.dispatcher().snapshot().get("batch").dispatched());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void cached_sources_are_reused_until_they_expire_or_are_evicted()
+    {
+        final AtomicLong clock = new AtomicLong();
+        final AtomicInteger loads = new AtomicInteger();
+        final SourceCache<String, String> cache =
+                new SourceCache<>(2, Duration.ofSeconds(10), Duration.ofSeconds(1), clock::get);
+        final Function<String, OneSource<String>> lookup =
+                key -> source(() -> key + loads.incrementAndGet()).cached(cache, key);
+
+        lookup.apply("a").consume(assertSuccessAnd(output::add));
+        lookup.apply("a").consume(assertSuccessAnd(output::add));
+        clock.addAndGet(Duration.ofSeconds(10).toNanos());
+        lookup.apply("a").consume(assertSuccessAnd(output::add));
+        lookup.apply("b").consume(assertSuccessAnd(output::add));
+        lookup.apply("a").consume(assertSuccessAnd(output::add));
+        lookup.apply("c").consume(assertSuccessAnd(output::add));
+        lookup.apply("a").consume(assertSuccessAnd(output::add));
+        lookup.apply("b").consume(assertSuccessAnd(output::add));
+
+        assertEquals(asList("a1", "a1", "a2", "b3", "a2", "c4", "a2", "b5"), output);
+        assertEquals(3, cache.hits());
+        assertEquals(5, cache.misses());
+        assertEquals(2, cache.evictions());
+    }
+
+    @Test
+    public void cached_failures_expire_sooner_and_concurrent_misses_share_one_load() throws Exception {
+        final AtomicLong clock = new AtomicLong();
+        final AtomicInteger loads = new AtomicInteger();
+        final SourceCache<String, Integer> cache =
+                new SourceCache<>(10, Duration.ofSeconds(10), Duration.ofSeconds(1), clock::get);
+        final OneSource<Integer> failing = source(() -> {
+            loads.incrementAndGet();
+            return "short".charAt(10);
+        }).map(c -> (int) c).cached(cache, "failing");
+
+        failing.consume(assertErrorAnd(e -> assertEquals(StringIndexOutOfBoundsException.class, e.getClass())));
+        failing.consume(assertErrorAnd(e -> assertEquals(StringIndexOutOfBoundsException.class, e.getClass())));
+        assertEquals(1, loads.get());
+        clock.addAndGet(Duration.ofSeconds(1).toNanos());
+        failing.consume(assertErrorAnd(e -> assertEquals(StringIndexOutOfBoundsException.class, e.getClass())));
+        assertEquals(2, loads.get());
+
+        final AsynchronousExecutor executor = new AsynchronousExecutor();
+        final BlockingFunction<String, String> slow = block(s -> s + loads.incrementAndGet());
+        final OneSource<String> shared = source(() -> "slow").map(slow).cached(new SourceCache<>(
+                10, Duration.ofSeconds(10), Duration.ZERO), "slow");
+        final CompletableFuture<Result<String>> first = shared.asyncExec(executor);
+        final CompletableFuture<Result<String>> second = shared.asyncExec(executor);
+        slow.unblock();
+
+        first.get(1, TimeUnit.SECONDS).consumeOrThrow(output::add);
+        second.get(1, TimeUnit.SECONDS).consumeOrThrow(output::add);
+        executor.shutdown();
+        assertEquals(asList("slow3", "slow3"), output);
+    }
+
+    @Test
+    public void a_cache_keeps_neither_loads_that_threw_nor_its_callers_timeouts() throws Exception
+    {
+        final SourceCache<String, Integer> cache =
+                new SourceCache<>(10, Duration.ofSeconds(10), Duration.ofSeconds(1));
+        try {
+            cache.get("threw", () -> {
+                throw new IllegalStateException("could not start");
+            });
+        } catch (IllegalStateException e) {
+            output.add(e.getMessage());
+        }
+        cache.get("threw", () -> CompletableFuture.completedFuture(Result.success(1)))
+                .get(1, TimeUnit.SECONDS)
+                .consume(fail(), i -> output.add(Integer.toString(i)));
+
+        cache.get("late", () -> CompletableFuture.completedFuture(Result.failure(new TimeoutException("late"))));
+        cache.get("late", () -> CompletableFuture.completedFuture(Result.success(2)))
+                .get(1, TimeUnit.SECONDS)
+                .consume(fail(), i -> output.add(Integer.toString(i)));
+
+        assertEquals(asList("could not start", "1", "2"), output);
+        assertEquals(4, cache.misses());
+        assertEquals(0, cache.hits());
+    }
+
+    @Test
+    public void callers_waiting_on_a_load_retry_it_when_it_fails_for_its_callers_own_reasons() throws Exception
+    {
+        final SourceCache<String, Integer> cache =
+                new SourceCache<>(10, Duration.ofSeconds(10), Duration.ofSeconds(10));
+        final CompletableFuture<Result<Integer>> timingOut = new CompletableFuture<>();
+        final CompletableFuture<Result<Integer>> loading = cache.get("key", () -> timingOut);
+        final CompletableFuture<Result<Integer>> waiting =
+                cache.get("key", () -> CompletableFuture.completedFuture(Result.success(2)));
+        timingOut.complete(Result.failure(new TimeoutException("the loader's deadline")));
+
+        loading.get(1, TimeUnit.SECONDS).consume(e -> output.add(e.getMessage()), fail());
+        waiting.get(1, TimeUnit.SECONDS).consume(fail(), i -> output.add(Integer.toString(i)));
+
+        assertEquals(asList("the loader's deadline", "2"), output);
+        assertEquals(2, cache.misses());
+        assertEquals(1, cache.hits());
+    }
+
+    @Test
+    public void a_cache_never_evicts_an_entry_still_loading() throws Exception
+    {
+        final SourceCache<String, Integer> cache =
+                new SourceCache<>(1, Duration.ofSeconds(10), Duration.ofSeconds(10));
+        final AtomicInteger loads = new AtomicInteger();
+        final CompletableFuture<Result<Integer>> slow = new CompletableFuture<>();
+        final Supplier<CompletableFuture<Result<Integer>>> loadSlowly = () -> {
+            loads.incrementAndGet();
+            return slow;
+        };
+
+        final CompletableFuture<Result<Integer>> first = cache.get("slow", loadSlowly);
+        cache.get("quick", () -> CompletableFuture.completedFuture(Result.success(1)));
+        final CompletableFuture<Result<Integer>> second = cache.get("slow", loadSlowly);
+        assertEquals(1, loads.get());
+        assertEquals(0, cache.evictions());
+
+        slow.complete(Result.success(7));
+        first.get(1, TimeUnit.SECONDS).consume(fail(), i -> output.add(Integer.toString(i)));
+        second.get(1, TimeUnit.SECONDS).consume(fail(), i -> output.add(Integer.toString(i)));
+
+        assertEquals(asList("7", "7"), output);
+        assertEquals(1, cache.size());
+        assertEquals(1, cache.evictions());
+    }
+
+    @Test
+    public void a_graph_built_once_can_be_evaluated_many_times_concurrently() throws Exception {
+        final AsynchronousExecutor executor = new AsynchronousExecutor();
+        final AtomicInteger supplied = new AtomicInteger();
+        final OneSource<String> graph = source(() -> "run " + supplied.incrementAndGet())
+                .mapTwo(this::firstWord, s -> s.substring(4))
+                .join((word, number) -> word + number);
+
+        final List<CompletableFuture<Result<String>>> results = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            results.add(graph.asyncExec(executor));
+        }
+        final Set<String> distinct = new HashSet<>();
+        for (CompletableFuture<Result<String>> result : results) {
+            result.get(1, TimeUnit.SECONDS).consumeOrThrow(distinct::add);
+        }
+        executor.shutdown();
+
+        assertEquals(100, supplied.get());
+        assertEquals(100, distinct.size());
+        assertTrue(distinct.contains("run1") && distinct.contains("run100"));
+    }
+
+    @Test
+    public void a_shared_node_that_throws_as_it_starts_fails_everyone_reading_it()
+    {
+        final Evaluation evaluation = Evaluation.unbounded();
+        final Object node = new Object();
+
+        final CompletableFuture<String> first = evaluation.shared(node, () -> {
+            throw new IllegalStateException("could not start");
+        });
+        final CompletableFuture<String> second =
+                evaluation.shared(node, () -> CompletableFuture.completedFuture("never started"));
+
+        assertSame(first, second);
+        assertTrue(second.isCompletedExceptionally());
+    }
+
+    @Test
+    public void a_compiled_plan_describes_its_shape_and_runs_repeatedly() throws Exception {
+        final AtomicInteger supplied = new AtomicInteger();
+        final CompiledSource<String> compiled = source(() -> "hello world " + supplied.incrementAndGet())
+                .mapTwo(String::length, this::firstWord)
+                .mapFirst(l -> l + 15)
+                .join((length, word) -> "" + length + " " + word)
+                .compile();
+
+        assertEquals(4, compiled.plan().nodeCount());
+        assertEquals(3, compiled.plan().depth());
+        assertEquals(asList("supply", "map", "join"), compiled.plan().criticalPath());
+
+        final AsynchronousExecutor executor = new AsynchronousExecutor();
+        compiled.consume(assertSuccessAnd(output::add));
+        compiled.asyncExec(executor).get(1, TimeUnit.SECONDS).consumeOrThrow(output::add);
+        executor.shutdown();
+
+        assertEquals(asList("28 hello", "28 hello"), output);
+        assertEquals(2, supplied.get());
+    }
+
+    @Test
+    public void both_halves_of_a_compiled_two_source_share_one_run()
+    {
+        final AtomicInteger supplied = new AtomicInteger();
+        source(() -> "moose " + supplied.incrementAndGet())
+                .mapTwo(String::length, this::firstWord)
+                .compile()
+                .consume(
+                        assertSuccessAnd(l -> output.add(Long.toString(l))),
+                        assertSuccessAnd(output::add));
+
+        assertEquals(asList("7", "moose"), output);
+        assertEquals(1, supplied.get());
+    }
+
+    @Test
+    public void one_output_of_a_compiled_run_never_waits_on_user_code_run_for_another() throws Exception
+    {
+        final CountDownLatch entered = new CountDownLatch(1);
+        final BlockingFunction<String, Integer> stuck = block(String::length);
+        final TwoSource<Integer, String> two = source(() -> "hello world")
+                .mapTwo(s -> {
+                    entered.countDown();
+                    return stuck.apply(s);
+                }, this::firstWord)
+                .compile();
+        final ImmediateExecutor executor = new ImmediateExecutor();
+        final Evaluation evaluation = Evaluation.unbounded();
+
+        final CompletableFuture<Result<Integer>> first =
+                CompletableFuture.supplyAsync(() -> two.first().asyncExec(executor, evaluation)).thenCompose(r -> r);
+        try {
+            assertTrue(entered.await(1, TimeUnit.SECONDS));
+            CompletableFuture.supplyAsync(() -> two.second().asyncExec(executor, evaluation))
+                    .thenCompose(r -> r)
+                    .get(1, TimeUnit.SECONDS)
+                    .consume(fail(), output::add);
+        } finally {
+            stuck.unblock();
+        }
+        first.get(1, TimeUnit.SECONDS).consume(fail(), l -> output.add(Long.toString(l)));
+
+        assertEquals(asList("hello", "11"), output);
+    }
+
+    @Test
+    public void failures_pass_through_stages_without_being_copied()
+    {
+        final Result<String> failed = Result.failure(new RuntimeException("oops"));
+
+        assertSame(failed, failed.map(String::length));
+        assertSame(failed, Result.both(Result.success(1), failed, (i, s) -> s + i));
+        Result.success("short").map(s -> s.charAt(10)).map(c -> c + 1)
+                .consume(e -> assertEquals(StringIndexOutOfBoundsException.class, e.getClass()), fail());
+    }
+
+    @Test
+    public void node_metrics_are_labelled_by_description() throws InterruptedException
+    {
+        final NodeMetrics metrics = new NodeMetrics();
+        final AsynchronousExecutor executor =
+                new AsynchronousExecutor(ExecutionBackend.fixed(2), metrics);
+        try {
+            final OneSource<String> words = new Supply<>("words", () -> "hello world");
+            final OneSource<Integer> length = words.map("length", String::length);
+            length.asyncConsume(executor, assertSuccessAnd(l -> asyncOutput.add(Long.toString(l))));
+            length.asyncConsume(executor, assertSuccessAnd(l -> asyncOutput.add(Long.toString(l))));
+            words.map("broken", pitcher(new RuntimeException("whoops")))
+                    .asyncConsume(executor, assertErrorAnd(e -> asyncOutput.add(e.getMessage())));
+            new Supply<>("slow", this::sleepUntilInterrupted)
+                    .asyncExec(executor, Duration.ofMillis(20))
+                    .thenAccept(r -> r.consume(e -> asyncOutput.add("timed out"), s -> {}));
+
+            final Set<String> seen = new HashSet<>();
+            for (int i = 0; i < 4; i++)
+            {
+                seen.add(asyncOutput.poll(5, TimeUnit.SECONDS));
+            }
+            assertEquals(new HashSet<>(asList("11", "whoops", "timed out")), seen);
+
+            // the interrupted supplier reports in after its timeout has already fired
+            final long giveUpAt = System.currentTimeMillis() + 5000;
+            while (!metrics.snapshot().containsKey("slow") && System.currentTimeMillis() < giveUpAt)
+            {
+                Thread.sleep(5);
+            }
+
+            final Map<String, NodeMetrics.Snapshot> snapshot = metrics.snapshot();
+            assertEquals(asList("broken", "length", "slow", "words"), new ArrayList<>(snapshot.keySet()));
+            assertEquals(1, snapshot.get("slow").timeouts());
+            assertEquals(3, snapshot.get("words").successes());
+            assertEquals(2, snapshot.get("length").successes());
+            assertEquals(1, snapshot.get("broken").failures());
+            assertEquals(2, snapshot.get("length").executing().count());
+            assertEquals(2, snapshot.get("length").queued().count());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void latency_histogram_reports_percentiles_to_within_an_eighth()
+    {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for (long i = 1; i <= 1000; i++)
+        {
+            histogram.record(i * 1000);
+        }
+        final LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+
+        assertEquals(1000, snapshot.count());
+        assertEquals(1_000_000, snapshot.max());
+        final long p50 = snapshot.valueAtPercentile(50);
+        final long p99 = snapshot.valueAtPercentile(99);
+        assertTrue(p50 >= 500_000 && p50 <= 500_000 * 9 / 8);
+        assertTrue(p99 >= 990_000 && p99 <= 1_000_000);
+    }
+
+    @Test
+    public void a_trace_follows_the_slowest_input_back_through_shared_nodes() throws Exception
+    {
+        final AsynchronousExecutor executor = new AsynchronousExecutor();
+        try {
+            final OneSource<String> words = new SharedSupply<>(new Supply<>("words", () -> "hello world"));
+            final OneSource<String> joined = new TwoSource<>(
+                    words.map("slow", s -> {
+                        sleep(50);
+                        return s.length();
+                    }),
+                    words.map("fast", this::firstWord))
+                    .join("join", (l, w) -> w + " " + l);
+
+            final Trace trace = new Trace();
+            joined.asyncExec(executor, trace).get(5, TimeUnit.SECONDS)
+                    .consume(fail(), output::add);
+
+            assertEquals(singletonList("hello 11"), output);
+            final List<String> path = new ArrayList<>();
+            for (Trace.Span span : trace.criticalPath())
+            {
+                path.add(span.description());
+            }
+            assertEquals(asList("words", "slow", "join"), path);
+            assertEquals(4, trace.spans().size());
+
+            final String events = trace.toTraceEvents();
+            assertTrue(events.startsWith("{\"traceEvents\":["));
+            assertTrue(events.contains("\"name\":\"slow\""));
+            assertTrue(events.contains("\"thread_name\""));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void the_fair_dispatcher_serves_classes_by_weight_not_arrival() throws Exception
+    {
+        final ExecutorService pool = Executors.newSingleThreadExecutor();
+        try {
+            final FairDispatcher dispatcher = new FairDispatcher(pool, 1);
+            final java.util.concurrent.Executor batch = dispatcher.queue(new TrafficClass("batch", 1));
+            final java.util.concurrent.Executor interactive = dispatcher.queue(new TrafficClass("interactive", 4));
+
+            final CountDownLatch busy = new CountDownLatch(1);
+            batch.execute(() -> {
+                try {
+                    busy.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            for (int i = 0; i < 5; i++)
+            {
+                batch.execute(() -> asyncOutput.add("b"));
+            }
+            interactive.execute(() -> asyncOutput.add("i"));
+            interactive.execute(() -> asyncOutput.add("i"));
+            assertEquals(5, dispatcher.snapshot().get("batch").depth());
+
+            busy.countDown();
+            final StringBuilder order = new StringBuilder();
+            for (int i = 0; i < 7; i++)
+            {
+                order.append(asyncOutput.poll(5, TimeUnit.SECONDS));
+            }
+
+            assertEquals("iibbbbb", order.toString());
+            final Map<String, FairDispatcher.Snapshot> snapshot = dispatcher.snapshot();
+            assertEquals(6, snapshot.get("batch").dispatched());
+            assertEquals(2, snapshot.get("interactive").dispatched());
+            assertEquals(0, snapshot.get("batch").depth());
+            assertEquals(2, snapshot.get("interactive").waiting().count());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void evaluations_run_in_their_traffic_class() throws Exception
+    {
+        final ExecutionBackend backend = ExecutionBackend.fair(2);
+        final AsynchronousExecutor executor = new AsynchronousExecutor(backend);
+        try {
+            final OneSource<Integer> graph = source(() -> "hello world").map(String::length);
+            for (int i = 0; i < 2; i++)
+            {
+                graph.asyncExec(executor, Duration.ofSeconds(5), new TrafficClass("interactive", 4))
+                        .get(5, TimeUnit.SECONDS)
+                        .consume(fail(), l -> output.add(Long.toString(l)));
+            }
+            try {
+                backend.dispatcher().queue(new TrafficClass("interactive", 1));
+            } catch (IllegalArgumentException e) {
+                output.add("clash");
+            }
+
+            assertEquals(asList("11", "11", "clash"), output);
+            assertEquals(singleton("interactive"), backend.dispatcher().snapshot().keySet());
+            assertEquals(4, backend.dispatcher().snapshot().get("interactive").dispatched());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void admission_control_rejects_sheds_or_blocks_when_full() throws Exception
+    {
+        final CountDownLatch release = new CountDownLatch(1);
+        final OneSource<String> stuck = source(() -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            return "stuck";
+        });
+        final OneSource<String> quick = source(() -> "quick");
+
+        final AdmissionControl rejecting = new AdmissionControl(1, 100, AdmissionControl.Policy.REJECT);
+        final AdmissionControl shedding = new AdmissionControl(1, 100, AdmissionControl.Policy.SHED_OLDEST);
+        final AdmissionControl blocking = new AdmissionControl(1, 100, AdmissionControl.Policy.BLOCK);
+        final List<AsynchronousExecutor> executors = new ArrayList<>();
+        for (AdmissionControl admission : asList(rejecting, shedding, blocking))
+        {
+            executors.add(new AsynchronousExecutor(ExecutionBackend.fixed(2), Instrumentation.NONE, admission));
+        }
+        try {
+            final CompletableFuture<Result<String>> first = stuck.asyncExec(executors.get(0));
+            quick.asyncExec(executors.get(0)).get(1, TimeUnit.SECONDS)
+                    .consume(e -> output.add(e.getClass().getSimpleName()), fail());
+            assertEquals(1, rejecting.rejected());
+
+            final CompletableFuture<Result<String>> oldest = stuck.asyncExec(executors.get(1));
+            final CompletableFuture<Result<String>> newest = quick.asyncExec(executors.get(1));
+            oldest.get(1, TimeUnit.SECONDS).consume(e -> output.add(e.getClass().getSimpleName()), fail());
+            newest.get(1, TimeUnit.SECONDS).consume(fail(), output::add);
+            assertEquals(1, shedding.shed());
+
+            final CompletableFuture<Result<String>> blocker = stuck.asyncExec(executors.get(2));
+            quick.asyncExec(executors.get(2), Duration.ofMillis(50)).get(1, TimeUnit.SECONDS)
+                    .consume(e -> output.add(e.getClass().getSimpleName()), fail());
+            assertEquals(1, blocking.rejected());
+
+            release.countDown();
+            first.get(1, TimeUnit.SECONDS).consume(fail(), output::add);
+            blocker.get(1, TimeUnit.SECONDS).consume(fail(), output::add);
+            quick.asyncExec(executors.get(0)).get(1, TimeUnit.SECONDS).consume(fail(), output::add);
+
+            assertEquals(
+                    asList("OverloadedException", "OverloadedException", "quick", "TimeoutException",
+                            "stuck", "stuck", "quick"),
+                    output);
+            assertEquals(0, rejecting.inFlight());
+        } finally {
+            for (AsynchronousExecutor executor : executors)
+            {
+                executor.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void both_halves_of_a_two_source_are_admitted_as_one_evaluation() throws Exception
+    {
+        final AdmissionControl admission = new AdmissionControl(1, 100, AdmissionControl.Policy.REJECT);
+        final AsynchronousExecutor executor =
+                new AsynchronousExecutor(ExecutionBackend.fixed(2), Instrumentation.NONE, admission);
+        final BlockingFunction<String, Integer> blocked = block(String::length);
+        try {
+            source(() -> "hello world")
+                    .mapTwo(blocked, this::firstWord)
+                    .asyncConsume(
+                            executor,
+                            r -> r.consume(e -> asyncOutput.add(e.getClass().getSimpleName()), l -> asyncOutput.add("" + l)),
+                            r -> r.consume(e -> asyncOutput.add(e.getClass().getSimpleName()), asyncOutput::add));
+
+            assertEquals("hello", asyncOutput.poll(1, TimeUnit.SECONDS));
+            assertEquals(1, admission.inFlight());
+            assertEquals(0, admission.rejected());
+
+            blocked.unblock();
+            assertEquals("11", asyncOutput.poll(1, TimeUnit.SECONDS));
+            // the evaluation finishes just after its last half is handed over
+            final long giveUpAt = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+            while (admission.inFlight() > 0 && System.nanoTime() < giveUpAt)
+            {
+                Thread.sleep(1);
+            }
+            assertEquals(0, admission.inFlight());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void shedding_interrupts_the_suppliers_of_the_evaluation_it_sheds() throws Exception
+    {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        final OneSource<String> stuck = source(() -> {
+            started.countDown();
+            try {
+                Thread.sleep(10_000);
+                return "stuck";
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+                throw new RuntimeException(e);
+            }
+        });
+        final AsynchronousExecutor executor = new AsynchronousExecutor(
+                ExecutionBackend.fixed(2),
+                Instrumentation.NONE,
+                new AdmissionControl(1, 100, AdmissionControl.Policy.SHED_OLDEST));
+        try {
+            final CompletableFuture<Result<String>> oldest =
+                    stuck.map(String::length).map(l -> "" + l).asyncExec(executor);
+            assertTrue(started.await(1, TimeUnit.SECONDS));
+            source(() -> "quick").asyncExec(executor).get(1, TimeUnit.SECONDS).consume(fail(), output::add);
+
+            oldest.get(1, TimeUnit.SECONDS).consume(e -> output.add(e.getClass().getSimpleName()), fail());
+            assertTrue(interrupted.await(1, TimeUnit.SECONDS));
+            assertEquals(asList("quick", "OverloadedException"), output);
+            assertEquals(1, executor.cancelledTasks());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void blocked_callers_without_a_deadline_wait_only_so_long() throws Exception
+    {
+        final CountDownLatch release = new CountDownLatch(1);
+        final AdmissionControl blocking =
+                new AdmissionControl(1, 100, AdmissionControl.Policy.BLOCK, Duration.ofMillis(50));
+        final AsynchronousExecutor executor =
+                new AsynchronousExecutor(ExecutionBackend.fixed(2), Instrumentation.NONE, blocking);
+        try {
+            final CompletableFuture<Result<Boolean>> blocker = source(() -> {
+                try {
+                    return release.await(1, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }).asyncExec(executor);
+            source(() -> "quick").asyncExec(executor).get(1, TimeUnit.SECONDS)
+                    .consume(e -> output.add(e.getClass().getSimpleName()), fail());
+            release.countDown();
+            blocker.get(1, TimeUnit.SECONDS).consume(fail(), b -> output.add(b.toString()));
+
+            assertEquals(asList("OverloadedException", "true"), output);
+            assertEquals(1, blocking.rejected());
+        } finally {
+            executor.shutdown();
+        }
+
+        final java.util.concurrent.Executor refusing = task -> {
+            throw new RejectedExecutionException("shut down");
+        };
+        try {
+            blocking.gate(Evaluation.unbounded(), refusing).execute(() -> {});
+        } catch (RejectedExecutionException e) {
+            output.add(e.getMessage());
+        }
+        assertEquals("shut down", output.get(2));
+        assertEquals(0, blocking.queued());
+    }
+
+    @Test
+    public void tasks_of_a_timed_out_evaluation_are_dropped_before_they_run() throws Exception
+    {
+        final AdmissionControl admission = new AdmissionControl(10, 100, AdmissionControl.Policy.REJECT);
+        final AsynchronousExecutor executor =
+                new AsynchronousExecutor(ExecutionBackend.fixed(1), Instrumentation.NONE, admission);
+        final AtomicInteger ran = new AtomicInteger();
+        try {
+            final CountDownLatch release = new CountDownLatch(1);
+            final CompletableFuture<Result<String>> hog = source(() -> {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                return "hog";
+            }).asyncExec(executor);
+
+            final Result<Integer> late = source(() -> "hello world")
+                    .map(s -> ran.incrementAndGet())
+                    .asyncExec(executor, Duration.ofMillis(20))
+                    .get(1, TimeUnit.SECONDS);
+            late.consume(e -> assertEquals(TimeoutException.class, e.getClass()), fail());
+
+            release.countDown();
+            hog.get(1, TimeUnit.SECONDS).consume(fail(), output::add);
+            final long giveUpAt = System.currentTimeMillis() + 1000;
+            while (admission.queued() > 0 && System.currentTimeMillis() < giveUpAt)
+            {
+                Thread.sleep(5);
+            }
+
+            assertEquals(singletonList("hog"), output);
+            assertEquals(0, ran.get());
+            // both the supplier and the map behind it
+            assertEquals(2, admission.expired());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void a_hedged_supplier_takes_the_first_success_and_cancels_the_other() throws Exception
+    {
+        final AsynchronousExecutor executor = new AsynchronousExecutor();
+        final AtomicInteger calls = new AtomicInteger();
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        final Hedge hedge = Hedge.after(Duration.ofMillis(20));
+        try {
+            final OneSource<String> hedged = new Supply<>("remote", () -> {
+                if (calls.incrementAndGet() == 1)
+                {
+                    try {
+                        Thread.sleep(10_000);
+                    } catch (InterruptedException e) {
+                        interrupted.countDown();
+                        throw new RuntimeException(e);
+                    }
+                }
+                return "call " + calls.get();
+            }).hedged(hedge);
+
+            hedged.asyncExec(executor).get(1, TimeUnit.SECONDS).consume(fail(), output::add);
+            assertTrue(interrupted.await(1, TimeUnit.SECONDS));
+
+            hedged.asyncExec(executor).get(1, TimeUnit.SECONDS).consume(fail(), output::add);
+
+            assertEquals(asList("call 2", "call 3"), output);
+            assertEquals(1, hedge.fired());
+            assertEquals(1, hedge.won());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void a_hedge_can_learn_its_delay_from_recent_latencies()
+    {
+        final Hedge hedge = Hedge.atPercentile(50, Duration.ofSeconds(1));
+        final OneSource<String> hedged = new Supply<>(() -> "quick").hedged(hedge);
+        for (int i = 0; i < 64; i++)
+        {
+            hedged.consume(assertSuccessAnd(s -> {}));
+        }
+
+        assertTrue(hedge.delay().compareTo(Duration.ofMillis(100)) < 0);
+        assertEquals(0, hedge.fired());
+    }
+
+    @Test
+    public void a_retrying_source_backs_off_and_runs_shared_nodes_again() throws Exception
+    {
+        final AsynchronousExecutor executor = new AsynchronousExecutor();
+        final AtomicInteger calls = new AtomicInteger();
+        final Retry retry =
+                Retry.exponential(5, Duration.ofMillis(1), Duration.ofMillis(10), new RetryBudget(0.1, 10));
+        try {
+            final OneSource<String> flaky = new SharedSupply<>(source(() -> {
+                if (calls.incrementAndGet() < 3)
+                {
+                    throw new IllegalStateException("try again");
+                }
+                return "hello world";
+            }));
+
+            flaky.map(this::firstWord)
+                    .retrying(retry)
+                    .asyncExec(executor)
+                    .get(1, TimeUnit.SECONDS)
+                    .consume(fail(), output::add);
+
+            assertEquals(singletonList("hello"), output);
+            assertEquals(3, calls.get());
+            assertEquals(2, retry.retries());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void retries_are_limited_by_their_budget_and_the_deadline() throws Exception
+    {
+        final AsynchronousExecutor executor = new AsynchronousExecutor();
+        final OneSource<String> broken = source(() -> {
+            throw new IllegalStateException("down");
+        });
+        try {
+            final Retry budgeted =
+                    Retry.exponential(5, Duration.ofMillis(1), Duration.ofMillis(1), new RetryBudget(0, 1));
+            for (int i = 0; i < 2; i++)
+            {
+                broken.retrying(budgeted).asyncExec(executor).get(1, TimeUnit.SECONDS)
+                        .consume(e -> output.add(e.getMessage()), fail());
+            }
+            assertEquals(1, budgeted.retries());
+            assertEquals(2, budgeted.refused());
+
+            final Retry slow =
+                    Retry.exponential(5, Duration.ofSeconds(10), Duration.ofSeconds(10), new RetryBudget(1, 10));
+            final long startedAt = System.nanoTime();
+            broken.retrying(slow).asyncExec(executor, Duration.ofMillis(500)).get(1, TimeUnit.SECONDS)
+                    .consume(e -> output.add(e.getMessage()), fail());
+            assertTrue(System.nanoTime() - startedAt < TimeUnit.MILLISECONDS.toNanos(500));
+            assertEquals(0, slow.retries());
+            assertEquals(1, slow.refused());
+
+            assertEquals(asList("down", "down", "down"), output);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void a_retrying_source_stops_once_its_evaluation_is_abandoned()
+    {
+        final Evaluation evaluation = Evaluation.unbounded();
+        final AtomicInteger attempts = new AtomicInteger();
+        final Retry retry =
+                Retry.exponential(5, Duration.ofMillis(1), Duration.ofMillis(10), new RetryBudget(0.1, 10));
+
+        source(() -> {
+            attempts.incrementAndGet();
+            evaluation.abandon(new CancellationException("sibling failed"));
+            throw new IllegalStateException("try again");
+        })
+                .retrying(retry)
+                .asyncExec(new ImmediateExecutor(), evaluation)
+                .join()
+                .consume(e -> output.add(e.getMessage()), fail());
+
+        assertEquals(singletonList("sibling failed"), output);
+        assertEquals(1, attempts.get());
+        assertEquals(1, retry.retries());
+    }
+
+    @Test
+    public void a_bulkhead_fails_fast_once_its_source_has_enough_calls_in_flight() throws Exception
+    {
+        final AsynchronousExecutor executor = new AsynchronousExecutor();
+        final Bulkhead bulkhead = new Bulkhead("remote", 1);
+        final CountDownLatch release = new CountDownLatch(1);
+        try {
+            final OneSource<String> remote = source(() -> {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                return "answer";
+            }).guardedBy(bulkhead);
+
+            final CompletableFuture<Result<String>> first = remote.asyncExec(executor);
+            remote.asyncExec(executor).get(1, TimeUnit.SECONDS).consume(e -> output.add(e.getMessage()), fail());
+            assertEquals(1, bulkhead.active());
+
+            release.countDown();
+            first.get(1, TimeUnit.SECONDS).consume(fail(), output::add);
+            remote.asyncExec(executor).get(1, TimeUnit.SECONDS).consume(fail(), output::add);
+
+            assertEquals(asList("bulkhead remote is full", "answer", "answer"), output);
+            assertEquals(1, bulkhead.rejected());
+            assertEquals(0, bulkhead.active());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void a_bulkhead_keeps_its_permit_until_a_timed_out_supplier_returns() throws Exception
+    {
+        final AsynchronousExecutor asynchronous = new AsynchronousExecutor();
+        final StructuredExecutor structured = new StructuredExecutor();
+        try {
+            for (Executor executor : asList(asynchronous, structured))
+            {
+                final Bulkhead bulkhead = new Bulkhead("remote", 1);
+                final CountDownLatch release = new CountDownLatch(1);
+                // a supplier that carries on regardless of being interrupted
+                final OneSource<String> remote = source(() -> {
+                    while (true)
+                    {
+                        try {
+                            release.await();
+                            return "answer";
+                        } catch (InterruptedException e) {
+                            // still tying up the thread
+                        }
+                    }
+                }).guardedBy(bulkhead);
+
+                remote.asyncExec(executor, Duration.ofMillis(50)).get(1, TimeUnit.SECONDS)
+                        .consume(e -> output.add(e.getClass().getSimpleName()), fail());
+                assertEquals(1, bulkhead.active());
+                remote.asyncExec(executor).get(1, TimeUnit.SECONDS).consume(e -> output.add(e.getMessage()), fail());
+
+                release.countDown();
+                final long giveUpAt = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+                while (bulkhead.active() > 0 && System.nanoTime() < giveUpAt)
+                {
+                    Thread.sleep(1);
+                }
+                remote.asyncExec(executor).get(1, TimeUnit.SECONDS).consume(fail(), output::add);
+            }
+            assertEquals(
+                    asList("TimeoutException", "bulkhead remote is full", "answer",
+                            "TimeoutException", "bulkhead remote is full", "answer"),
+                    output);
+        } finally {
+            asynchronous.shutdown();
+            structured.shutdown();
+        }
+    }
+
+    @Test
+    public void a_circuit_breaker_opens_on_failures_and_closes_after_a_good_probe()
+    {
+        final AtomicLong now = new AtomicLong();
+        final CircuitBreaker breaker =
+                new CircuitBreaker("remote", 0.5, 4, 4, Duration.ofSeconds(1), 1, now::get);
+        final AtomicInteger calls = new AtomicInteger();
+        final AtomicReference<String> answer = new AtomicReference<>("ok");
+        final OneSource<String> remote = source(() -> {
+            calls.incrementAndGet();
+            if (answer.get() == null)
+            {
+                throw new IllegalStateException("down");
+            }
+            return answer.get();
+        }).guardedBy(breaker);
+        final Consumer<Result<String>> collect = r -> r.consume(e -> output.add(e.getMessage()), output::add);
+
+        remote.consume(collect);
+        remote.consume(collect);
+        answer.set(null);
+        remote.consume(collect);
+        remote.consume(collect);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+
+        remote.consume(collect);
+        assertEquals(4, calls.get());
+
+        now.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        remote.consume(collect);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+
+        now.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        answer.set("back");
+        remote.consume(collect);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+
+        assertEquals(asList("ok", "ok", "down", "down", "circuit remote is OPEN", "down", "back"), output);
+        assertEquals(2, breaker.trips());
+        assertEquals(1, breaker.rejected());
+    }
+
+    @Test
+    public void a_circuit_breaker_only_counts_a_call_towards_the_state_it_was_let_in_under()
+    {
+        final AtomicLong now = new AtomicLong();
+        final CircuitBreaker breaker =
+                new CircuitBreaker("remote", 0.5, 2, 2, Duration.ofSeconds(1), 1, now::get);
+        final Guard.Pass slow = breaker.enter();
+        breaker.enter().exit(Result.failure(new IllegalStateException("down")));
+        breaker.enter().exit(Result.failure(new IllegalStateException("down")));
+        assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+
+        now.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        final Guard.Pass probe = breaker.enter();
+        assertNull(probe.refusal());
+        // let in while closed, so no answer to whether the source has recovered
+        slow.exit(Result.success("ok"));
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.state());
+
+        probe.exit(Result.success("ok"));
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+    }
+
+    @Test
+    public void a_circuit_breaker_trips_again_when_its_probes_do_not_come_back_in_time()
+    {
+        final AtomicLong now = new AtomicLong();
+        final CircuitBreaker breaker = new CircuitBreaker(
+                "remote", 0.5, 1, 1, Duration.ofSeconds(1), 1, Duration.ofSeconds(5), now::get);
+        breaker.enter().exit(null);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+
+        now.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        assertNull(breaker.enter().refusal());
+        now.addAndGet(TimeUnit.SECONDS.toNanos(4));
+        assertEquals("circuit remote is HALF_OPEN", breaker.enter().refusal().getMessage());
+
+        now.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        assertEquals("circuit remote is OPEN", breaker.enter().refusal().getMessage());
+        assertEquals(2, breaker.trips());
+
+        now.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        assertNull(breaker.enter().refusal());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.state());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void a_circuit_breaker_window_holds_at_least_one_call()
+    {
+        new CircuitBreaker("remote", 0.5, 0, 0, Duration.ofSeconds(1), 1);
+    }
+
+    @Test
+    public void inline_maps_run_on_the_thread_that_completed_their_input() throws Exception
+    {
+        final AsynchronousExecutor executor = new AsynchronousExecutor();
+        try {
+            final List<String> threads = new CopyOnWriteArrayList<>();
+            final CountDownLatch go = new CountDownLatch(1);
+            final CompletableFuture<Result<Integer>> result = source(() -> {
+                try {
+                    go.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                threads.add(Thread.currentThread().getName());
+                return "hello world";
+            })
+                    .mapInline(s -> {
+                        threads.add(Thread.currentThread().getName());
+                        return s.length();
+                    })
+                    .asyncExec(executor);
+            // so that the supplier completes after the map has been attached, on a pool thread
+            go.countDown();
+            result.get(1, TimeUnit.SECONDS).consume(fail(), l -> output.add(Long.toString(l)));
+
+            assertEquals(singletonList("11"), output);
+            assertEquals(threads.get(0), threads.get(1));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void maps_that_prove_cheap_are_run_inline() throws Exception
+    {
+        final StageCosts stageCosts = new StageCosts(Duration.ofMillis(5));
+        final AsynchronousExecutor executor =
+                new AsynchronousExecutor(ExecutionBackend.fixed(4), Instrumentation.NONE, null, stageCosts);
+        try {
+            final AtomicReference<String> supplierThread = new AtomicReference<>();
+            final AtomicReference<String> mapThread = new AtomicReference<>();
+            final AtomicReference<CountDownLatch> go = new AtomicReference<>(new CountDownLatch(0));
+            final OneSource<String> words = source(() -> {
+                try {
+                    go.get().await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                supplierThread.set(Thread.currentThread().getName());
+                return "hello world";
+            });
+            final Function<String, Integer> length = s -> {
+                mapThread.set(Thread.currentThread().getName());
+                return s.length();
+            };
+            final Function<Integer, Integer> slow = l -> {
+                sleep(10);
+                return l;
+            };
+            final OneMapSource<String, Integer> graph = new OneMapSource<>(words, "length", length);
+            // labelled alike, but learning a cost of its own
+            final OneMapSource<Integer, Integer> slowGraph =
+                    new OneMapSource<>(words.map("length", length), "length", slow, false);
+
+            for (int i = 0; i < 16; i++)
+            {
+                graph.asyncExec(executor).get(1, TimeUnit.SECONDS).consume(fail(), l -> {});
+                slowGraph.asyncExec(executor).get(1, TimeUnit.SECONDS).consume(fail(), l -> {});
+            }
+            assertTrue(stageCosts.cheap(graph.stage()));
+            assertTrue(stageCosts.averageCost(graph.stage()).compareTo(Duration.ofMillis(5)) < 0);
+            assertFalse(stageCosts.cheap(slowGraph.stage()));
+
+            go.set(new CountDownLatch(1));
+            final CompletableFuture<Result<Integer>> result = graph.asyncExec(executor);
+            go.get().countDown();
+            result.get(1, TimeUnit.SECONDS).consume(fail(), l -> {});
+            assertEquals(supplierThread.get(), mapThread.get());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void one_graph_can_be_evaluated_over_many_inputs_in_chunks() throws Exception
+    {
+        final AsynchronousExecutor executor = new AsynchronousExecutor();
+        try {
+            final Input<String> word = new Input<>();
+            final OneSource<String> graph = word
+                    .map(s -> {
+                        if (s.isEmpty())
+                        {
+                            throw new IllegalArgumentException("empty");
+                        }
+                        return s.length();
+                    })
+                    .map(l -> Long.toString(l * 2));
+
+            final List<String> words = asList("a", "bb", "", "dddd", "eeeee", "ffffff", "g");
+            final List<Result<String>> results = graph
+                    .asyncExecEach(executor, word, words, 3, Duration.ofSeconds(5))
+                    .get(1, TimeUnit.SECONDS);
+            for (Result<String> result : results)
+            {
+                result.consume(e -> output.add(e.getMessage()), output::add);
+            }
+            assertEquals(asList("2", "4", "empty", "8", "10", "12", "2"), output);
+
+            graph.asyncExec(executor, word, "hello").get(1, TimeUnit.SECONDS).consume(fail(), output::add);
+            graph.asyncExec(executor).get(1, TimeUnit.SECONDS).consume(e -> output.add(e.getMessage()), fail());
+            assertEquals(asList("10", "No value bound to input"), output.subList(7, 9));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void a_batch_completes_by_its_deadline_even_when_a_stage_hangs() throws Exception
+    {
+        final AsynchronousExecutor executor = new AsynchronousExecutor();
+        final CountDownLatch hung = new CountDownLatch(1);
+        try {
+            final Input<String> word = new Input<>();
+            final OneSource<Integer> graph = word.map(s -> {
+                if (s.equals("hang"))
+                {
+                    try {
+                        hung.await();
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+                return s.length();
+            });
+
+            // long enough for every other input to be done well before it passes
+            final List<Result<Integer>> results = graph
+                    .asyncExecEach(executor, word, asList("a", "hang", "ccc"), 2, Duration.ofSeconds(1))
+                    .get(5, TimeUnit.SECONDS);
+            for (Result<Integer> result : results)
+            {
+                result.consume(e -> output.add(e.getClass().getSimpleName()), l -> output.add(Long.toString(l)));
+            }
+            assertEquals(asList("1", "TimeoutException", "3"), output);
+        } finally {
+            hung.countDown();
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void a_batch_is_admitted_as_one_evaluation() throws Exception
+    {
+        final AdmissionControl admission = new AdmissionControl(1, 100, AdmissionControl.Policy.REJECT);
+        final AsynchronousExecutor executor =
+                new AsynchronousExecutor(ExecutionBackend.fixed(4), Instrumentation.NONE, admission);
+        try {
+            final Input<String> word = new Input<>();
+            final List<Result<Integer>> results = word
+                    .map(String::length)
+                    .asyncExecEach(executor, word, asList("a", "bb", "ccc", "dddd", "eeeee"), 2, Duration.ofSeconds(5))
+                    .get(1, TimeUnit.SECONDS);
+            for (Result<Integer> result : results)
+            {
+                result.consume(e -> output.add(e.getClass().getSimpleName()), l -> output.add(Long.toString(l)));
+            }
+            assertEquals(asList("1", "2", "3", "4", "5"), output);
+            assertEquals(0, admission.rejected());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void a_batch_needs_chunks_of_at_least_one_input()
+    {
+        final Input<String> word = new Input<>();
+        word.asyncExecEach(new ImmediateExecutor(), word, asList("a", "b"), 0, Duration.ofSeconds(1));
+    }
+
+    @Test
+    public void inputs_keep_their_values_when_a_retry_runs_them_again() throws Exception
+    {
+        final AsynchronousExecutor executor = new AsynchronousExecutor();
+        final AtomicInteger attempts = new AtomicInteger();
+        final Retry retry =
+                Retry.exponential(3, Duration.ofMillis(1), Duration.ofMillis(10), new RetryBudget(0.1, 10));
+        try {
+            final Input<String> word = new Input<>();
+            final OneSource<Integer> graph = word
+                    .map(s -> {
+                        if (attempts.incrementAndGet() < 2)
+                        {
+                            throw new IllegalStateException("try again");
+                        }
+                        return s.length();
+                    })
+                    .retrying(retry);
+
+            graph.asyncExec(executor, word, "hello")
+                    .get(1, TimeUnit.SECONDS)
+                    .consume(fail(), l -> output.add(Long.toString(l)));
+
+            assertEquals(singletonList("5"), output);
+            assertEquals(2, attempts.get());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void a_failed_branch_cancels_its_sibling_before_the_evaluation_ends() throws Exception
+    {
+        final StructuredExecutor executor = new StructuredExecutor();
+        try {
+            source(() -> "hello world")
+                    .mapTwo(String::length, this::firstWord)
+                    .join((length, word) -> "" + length + " " + word)
+                    .asyncExec(executor, Duration.ofSeconds(1))
+                    .get(1, TimeUnit.SECONDS)
+                    .consumeOrThrow(output::add);
+            assertEquals(singletonList("11 hello"), output);
+
+            final CountDownLatch interrupted = new CountDownLatch(1);
+            final AtomicBoolean siblingExited = new AtomicBoolean();
+            final OneSource<String> slow = source(() -> {
+                try {
+                    Thread.sleep(10_000);
+                    return "too late";
+                } catch (InterruptedException e) {
+                    interrupted.countDown();
+                    // the evaluation waits for its nodes to give up, until its deadline
+                    sleep(50);
+                    siblingExited.set(true);
+                    throw new RuntimeException(e);
+                }
+            });
+            final OneSource<String> broken = source(() -> {
+                sleep(20);
+                throw new IllegalStateException("broken");
+            });
+
+            final long startedAt = System.nanoTime();
+            final Result<String> result = new TwoSource<>(slow, broken)
+                    .join((a, b) -> a + b)
+                    .asyncExec(executor, Duration.ofSeconds(30))
+                    .get(1, TimeUnit.SECONDS);
+
+            result.consume(e -> assertEquals("broken", e.getMessage()), fail());
+            assertTrue(System.nanoTime() - startedAt < TimeUnit.SECONDS.toNanos(1));
+            assertEquals(0, interrupted.getCount());
+            assertTrue(siblingExited.get());
+            assertEquals(1, executor.cancelledTasks());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void a_node_that_throws_an_error_still_completes_its_result() throws Exception
+    {
+        final BlockingQueue<Throwable> uncaught = new LinkedBlockingQueue<>();
+        final StructuredExecutor executor = new StructuredExecutor(Executors.newCachedThreadPool(r -> {
+            final Thread thread = new Thread(r);
+            thread.setDaemon(true);
+            thread.setUncaughtExceptionHandler((t, e) -> uncaught.add(e));
+            return thread;
+        }));
+        try {
+            source(() -> "hello")
+                    .map(s -> {
+                        throw new AssertionError("broken");
+                    })
+                    .asyncExec(executor)
+                    .get(1, TimeUnit.SECONDS)
+                    .consume(e -> output.add(e.getCause().getMessage()), fail());
+
+            assertEquals(singletonList("broken"), output);
+            // and the thread still hears about it
+            assertEquals("broken", uncaught.poll(1, TimeUnit.SECONDS).getMessage());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void both_halves_of_a_two_source_share_one_scope_until_both_are_done() throws Exception
+    {
+        final StructuredExecutor executor = new StructuredExecutor();
+        final AtomicInteger attempts = new AtomicInteger();
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        final CountDownLatch bothDone = new CountDownLatch(2);
+        final Retry retry =
+                Retry.exponential(2, Duration.ofMillis(1), Duration.ofMillis(1), new RetryBudget(1, 10));
+        try {
+            // the second half's retry forks after the first half has finished
+            final OneSource<String> retried = source(() -> {
+                if (attempts.incrementAndGet() == 1)
+                {
+                    sleep(20);
+                    throw new IllegalStateException("try again");
+                }
+                try {
+                    Thread.sleep(10_000);
+                    return "too late";
+                } catch (InterruptedException e) {
+                    interrupted.countDown();
+                    throw new RuntimeException(e);
+                }
+            }).retrying(retry);
+
+            final OneSource<String> quick = source(() -> {
+                sleep(5);
+                return "quick";
+            });
+            new TwoSource<>(quick, retried).asyncConsume(
+                    executor,
+                    Duration.ofMillis(200),
+                    r -> {
+                        r.consume(fail(), asyncOutput::add);
+                        bothDone.countDown();
+                    },
+                    r -> {
+                        r.consume(e -> asyncOutput.add(e.getClass().getSimpleName()), fail());
+                        bothDone.countDown();
+                    });
+
+            assertTrue(bothDone.await(1, TimeUnit.SECONDS));
+            assertTrue(interrupted.await(1, TimeUnit.SECONDS));
+            assertEquals(asList("quick", "TimeoutException"), new ArrayList<>(asyncOutput));
+            assertEquals(2, attempts.get());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void a_structured_evaluation_times_out_without_waiting_for_stubborn_nodes() throws Exception
+    {
+        final StructuredExecutor executor = new StructuredExecutor();
+        final AtomicBoolean exited = new AtomicBoolean();
+        try {
+            final OneSource<String> stubborn = source(() -> {
+                final long until = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(500);
+                while (System.nanoTime() < until)
+                {
+                    try {
+                        Thread.sleep(10);
+                    } catch (InterruptedException e) {
+                        // carries on regardless
+                    }
+                }
+                exited.set(true);
+                return "too late";
+            });
+
+            final long startedAt = System.nanoTime();
+            stubborn.asyncExec(executor, Duration.ofMillis(50))
+                    .get(1, TimeUnit.SECONDS)
+                    .consume(e -> output.add(e.getClass().getSimpleName()), fail());
+
+            assertEquals(singletonList("TimeoutException"), output);
+            assertTrue(System.nanoTime() - startedAt < TimeUnit.MILLISECONDS.toNanos(400));
+            assertFalse(exited.get());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void branches_nobody_reads_are_never_started() throws Exception
+    {
+        final AtomicInteger supplied = new AtomicInteger();
+        final AtomicInteger secondRan = new AtomicInteger();
+        final TwoSource<Integer, String> two = source(() -> {
+            supplied.incrementAndGet();
+            return "hello world";
+        }).mapTwo(String::length, s -> {
+            secondRan.incrementAndGet();
+            return firstWord(s);
+        });
+
+        two.first().consume(assertSuccessAnd(l -> output.add(Long.toString(l))));
+        two.compile().first().consume(assertSuccessAnd(l -> output.add(Long.toString(l))));
+        assertEquals(asList("11", "11"), output);
+        assertEquals(2, supplied.get());
+        assertEquals(0, secondRan.get());
+
+        // nor is the second half of a join whose first half has already failed
+        final AtomicInteger started = new AtomicInteger();
+        final OneSource<String> counted = source(() -> {
+            started.incrementAndGet();
+            return "fine";
+        });
+        new TwoSource<>(source(() -> "short".substring(10)), counted)
+                .join((a, b) -> a + b)
+                .consume(assertErrorAnd(e -> assertEquals(StringIndexOutOfBoundsException.class, e.getClass())));
+        ManySource.of(asList(counted, source(() -> "short".substring(10)), counted))
+                .join(List::size)
+                .consume(assertErrorAnd(e -> assertEquals(StringIndexOutOfBoundsException.class, e.getClass())));
+        assertEquals(1, started.get());
+
+        final AsynchronousExecutor executor = new AsynchronousExecutor();
+        try {
+            final Result<String> failed = new TwoSource<>(source(() -> {
+                sleep(20);
+                return "short".substring(10);
+            }), counted)
+                    .joinInOrder("in-order", (a, b) -> a + b)
+                    .asyncExec(executor)
+                    .get(1, TimeUnit.SECONDS);
+            failed.consume(e -> assertEquals(StringIndexOutOfBoundsException.class, e.getClass()), fail());
+            assertEquals(1, started.get());
+
+            new TwoSource<>(source(() -> "all"), counted)
+                    .joinInOrder("in-order", (a, b) -> a + " " + b)
+                    .asyncExec(executor)
+                    .get(1, TimeUnit.SECONDS)
+                    .consumeOrThrow(output::add);
+            assertEquals("all fine", output.get(2));
+            assertEquals(2, started.get());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void a_join_fails_fast_and_abandons_the_other_branch() throws Exception
+    {
+        final AsynchronousExecutor executor =
+                new AsynchronousExecutor(ExecutionBackend.fixed(10), Instrumentation.NONE, null, null, true);
+        try {
+            final CountDownLatch interrupted = new CountDownLatch(1);
+            final AtomicInteger mapped = new AtomicInteger();
+            final OneSource<Integer> slow = source(() -> {
+                try {
+                    Thread.sleep(10_000);
+                    return "too late";
+                } catch (InterruptedException e) {
+                    interrupted.countDown();
+                    throw new RuntimeException(e);
+                }
+            }).map(s -> {
+                mapped.incrementAndGet();
+                return s.length();
+            });
+            final OneSource<Integer> broken = source(() -> {
+                sleep(20);
+                return "short".substring(10).length();
+            });
+
+            final long startedAt = System.nanoTime();
+            final Result<Integer> result = new TwoSource<>(broken, slow)
+                    .join(Integer::sum)
+                    .asyncExec(executor)
+                    .get(1, TimeUnit.SECONDS);
+
+            result.consume(e -> assertEquals(StringIndexOutOfBoundsException.class, e.getClass()), fail());
+            assertTrue(System.nanoTime() - startedAt < TimeUnit.SECONDS.toNanos(1));
+            assertTrue(interrupted.await(1, TimeUnit.SECONDS));
+            assertEquals(1, executor.failedFast());
+            // the slow branch's map still reaches a worker, but does not run
+            final long giveUpAt = System.currentTimeMillis() + 1000;
+            while ((executor.skippedStages() == 0 || executor.cancelledTasks() == 0)
+                    && System.currentTimeMillis() < giveUpAt)
+            {
+                Thread.sleep(1);
+            }
+            assertEquals(1, executor.cancelledTasks());
+            assertEquals(1, executor.skippedStages());
+            assertEquals(0, mapped.get());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void joins_only_branch_where_the_executor_fails_fast()
+    {
+        final Evaluation evaluation = Evaluation.unbounded();
+        final AsynchronousExecutor executor = new AsynchronousExecutor();
+        try {
+            assertSame(evaluation, executor.branch(evaluation));
+            assertSame(evaluation, new ImmediateExecutor().branch(evaluation));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void a_branch_shares_its_nodes_but_is_abandoned_on_its_own()
+    {
+        final Evaluation evaluation = Evaluation.unbounded();
+        final Evaluation outer = evaluation.branch();
+        final Evaluation inner = outer.branch();
+
+        // shared nodes run under the evaluation itself, whichever branch starts them
+        assertSame(evaluation, inner.sharing());
+        outer.abandon(new CancellationException("sibling failed"));
+        assertTrue(inner.dropped());
+        assertEquals("sibling failed", inner.dropReason().getMessage());
+        assertFalse(evaluation.dropped());
+    }
+
+    @Test
+    public void abandoning_an_evaluation_reaches_the_branches_and_forks_within_it()
+    {
+        final Evaluation evaluation = Evaluation.unbounded();
+        assertFalse(evaluation.fork().abandonable());
+
+        evaluation.allowAbandoning();
+        final Evaluation branch = evaluation.branch();
+        final Evaluation retry = branch.fork();
+        retry.onAbandoned(() -> output.add("interrupted"));
+        evaluation.abandon(new OverloadedException());
+
+        assertTrue(branch.dropped());
+        assertEquals(OverloadedException.class, retry.dropReason().getClass());
+        assertEquals(singletonList("interrupted"), output);
+    }
+
+    private String sleepUntilInterrupted()
+    {
+        sleep(60_000);
+        return "too late";
+    }
+
+    private static void sleep(final long millis)
+    {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
     }
 
     private <S, T> Function<S, T> pitcher(final RuntimeException e)